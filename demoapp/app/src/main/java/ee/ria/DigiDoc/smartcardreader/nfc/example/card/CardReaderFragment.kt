@@ -44,6 +44,7 @@ import ee.ria.DigiDoc.idcard.PaceTunnelException
 import ee.ria.DigiDoc.idcard.TokenWithPace
 import ee.ria.DigiDoc.smartcardreader.ApduResponseException
 import ee.ria.DigiDoc.smartcardreader.SmartCardReaderException
+import ee.ria.DigiDoc.smartcardreader.nfc.NfcReaderModeProfile
 import ee.ria.DigiDoc.smartcardreader.nfc.NfcSmartCardReaderManager
 import ee.ria.DigiDoc.smartcardreader.nfc.NfcSmartCardReaderManager.NfcStatus
 import ee.ria.DigiDoc.smartcardreader.nfc.example.R
@@ -101,6 +102,7 @@ class CardReaderFragment : Fragment() {
 
         // Create the manager to be used for serving different requests
         nfcSmartCardReaderManager = NfcSmartCardReaderManager()
+        nfcSmartCardReaderManager.setReaderModeProfile(NfcReaderModeProfile.ID_CARD)
 
         val get = arguments?.getString("get")
 
@@ -182,16 +184,14 @@ class CardReaderFragment : Fragment() {
                     val cf: CertificateFactory = CertificateFactory.getInstance("X.509")
                     val cert: X509Certificate = cf.generateCertificate(inps) as X509Certificate
 
-                    setReaderResult(R.drawable.success)
-                    requireActivity().runOnUiThread {
+                    setReaderResult(R.drawable.success) {
                         val bundle = Bundle()
                         bundle.putString("user", cert.subjectDN.toString())
                         findNavController()
                             .navigate(R.id.action_cardReaderFragment_to_authFragment, bundle)
                     }
                 } catch (ex: SmartCardReaderException) {
-                    setReaderResult(R.drawable.error)
-                    requireActivity().runOnUiThread {
+                    setReaderResult(R.drawable.error) {
                         exceptionToast(ex)
                         findNavController().popBackStack(R.id.pin1Fragment, false)
                     }
@@ -226,20 +226,19 @@ class CardReaderFragment : Fragment() {
                     val signatureArray = card.calculateSignature(pin2!!, dataToSign!!, true)
                     debugLog(logTag, String.format("%s", Hex.toHexString(signatureArray)))
                     addSignature(signatureArray)
-                    setReaderResult(R.drawable.success)
+                    setReaderResult(R.drawable.success) {
+                        findNavController().navigate(R.id.action_cardReaderFragment_to_containerFragment)
+                    }
                 } catch (ex: SmartCardReaderException) {
-                    setReaderResult(R.drawable.error)
-                    requireActivity().runOnUiThread {
+                    setReaderResult(R.drawable.error) {
                         exceptionToast(ex)
+                        findNavController().navigate(R.id.action_cardReaderFragment_to_containerFragment)
                     }
                     val message =  ex.message ?: "Error communicating with card"
                     errorLog(logTag, message, ex)
                 } finally {
                     nfcSmartCardReaderManager.disableNfcReaderMode()
                 }
-                requireActivity().runOnUiThread {
-                    findNavController().navigate(R.id.action_cardReaderFragment_to_containerFragment)
-                }
             }
         })
     }
@@ -274,13 +273,11 @@ class CardReaderFragment : Fragment() {
                     val pin2counter = card.codeRetryCounter(CodeType.PIN2)
                     dataViewModel.setPin2Counter(pin2counter)
 
-                    setReaderResult(R.drawable.success)
-                    requireActivity().runOnUiThread {
+                    setReaderResult(R.drawable.success) {
                         findNavController().navigate(R.id.action_cardReaderFragment_to_cardInfoFragment)
                     }
                 } catch (ex: SmartCardReaderException) {
-                    setReaderResult(R.drawable.error)
-                    requireActivity().runOnUiThread {
+                    setReaderResult(R.drawable.error) {
                         findNavController().popBackStack(R.id.canFragment, false)
                         exceptionToast(ex)
                     }
@@ -301,13 +298,21 @@ class CardReaderFragment : Fragment() {
         }
     }
 
-    private fun setReaderResult(drawable: Int) {
+    /**
+     * Show the result icon and continue on the UI thread after a delay, without holding
+     * the card while the result is shown.
+     */
+    private fun setReaderResult(drawable: Int, next: () -> Unit) {
         requireActivity().runOnUiThread {
             progressBar.visibility = View.GONE
             resultIcon.visibility = View.VISIBLE
             resultIcon.setImageResource(drawable)
+            resultIcon.postDelayed({
+                if (isAdded) {
+                    next()
+                }
+            }, 1500)
         }
-        Thread.sleep(1500)
     }
 
     private fun exceptionToast(ex: SmartCardReaderException) {
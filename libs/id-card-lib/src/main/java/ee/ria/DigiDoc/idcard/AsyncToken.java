@@ -0,0 +1,104 @@
+/*
+ * Copyright 2017 - 2025 Riigi Infosüsteemi Amet
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package ee.ria.DigiDoc.idcard;
+
+import java.util.concurrent.CompletableFuture;
+
+import ee.ria.DigiDoc.smartcardreader.CardExecutor;
+
+/**
+ * Asynchronous facade of {@link Token}.
+ * <p>
+ * Operations are queued to the {@link CardExecutor} of the reader and run in order,
+ * futures complete with the result or with the exception thrown by the token.
+ */
+public class AsyncToken {
+
+    private final Token token;
+    protected final CardExecutor executor;
+
+    /**
+     * @param token Token created for the reader of the executor.
+     * @param executor Card I/O executor of the reader.
+     */
+    public AsyncToken(Token token, CardExecutor executor) {
+        this.token = token;
+        this.executor = executor;
+    }
+
+    /**
+     * @return Synchronous token, to be used only on the card I/O thread.
+     */
+    public Token token() {
+        return token;
+    }
+
+    public CompletableFuture<PersonalData> personalData() {
+        return executor.submit(token::personalData);
+    }
+
+    public CompletableFuture<Void> changeCode(CodeType type, byte[] currentCode, byte[] newCode) {
+        return executor.submit(() -> {
+            token.changeCode(type, currentCode, newCode);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> unblockAndChangeCode(byte[] pukCode, CodeType type, byte[] newCode) {
+        return executor.submit(() -> {
+            token.unblockAndChangeCode(pukCode, type, newCode);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Integer> pinChangedFlag() {
+        return executor.submit(token::pinChangedFlag);
+    }
+
+    public CompletableFuture<Integer> codeRetryCounter(CodeType type) {
+        return executor.submit(() -> token.codeRetryCounter(type));
+    }
+
+    public CompletableFuture<byte[]> certificate(CertificateType type) {
+        return executor.submit(() -> token.certificate(type));
+    }
+
+    public CompletableFuture<byte[]> calculateSignature(byte[] pin2, byte[] hash, boolean ecc) {
+        return executor.submit(() -> token.calculateSignature(pin2, hash, ecc));
+    }
+
+    public CompletableFuture<byte[]> authenticate(byte[] pin1, byte[] token) {
+        return executor.submit(() -> this.token.authenticate(pin1, token));
+    }
+
+    public CompletableFuture<byte[]> decrypt(byte[] pin1, byte[] data, boolean ecc) {
+        return executor.submit(() -> token.decrypt(pin1, data, ecc));
+    }
+
+    /**
+     * Create token for the current card of the executor's reader on the card I/O thread.
+     *
+     * @param executor Card I/O executor of a connected reader.
+     * @return Future completed with the token.
+     */
+    public static CompletableFuture<AsyncToken> create(CardExecutor executor) {
+        return executor.submit(() -> new AsyncToken(Token.create(executor.reader()), executor));
+    }
+}
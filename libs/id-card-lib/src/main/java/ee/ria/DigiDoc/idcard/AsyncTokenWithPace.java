@@ -0,0 +1,73 @@
+/*
+ * Copyright 2017 - 2025 Riigi Infosüsteemi Amet
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package ee.ria.DigiDoc.idcard;
+
+import java.util.concurrent.CompletableFuture;
+
+import ee.ria.DigiDoc.smartcardreader.CardExecutor;
+import ee.ria.DigiDoc.smartcardreader.SmartCardReaderException;
+import ee.ria.DigiDoc.smartcardreader.nfc.NfcSmartCardReader;
+
+/**
+ * Asynchronous facade of {@link TokenWithPace}.
+ */
+public final class AsyncTokenWithPace extends AsyncToken {
+
+    private final TokenWithPace token;
+
+    public AsyncTokenWithPace(TokenWithPace token, CardExecutor executor) {
+        super(token, executor);
+        this.token = token;
+    }
+
+    @Override
+    public TokenWithPace token() {
+        return token;
+    }
+
+    /**
+     * Queue PACE key-exchange, following operations run inside the tunnel.
+     *
+     * @param can Card access number.
+     * @return Future completed when the tunnel is established.
+     */
+    public CompletableFuture<Void> tunnel(String can) {
+        return executor.submit(() -> {
+            token.tunnel(can);
+            return null;
+        });
+    }
+
+    /**
+     * Create token for the card of the executor's NFC reader on the card I/O thread.
+     *
+     * @param executor Card I/O executor of a connected NFC reader.
+     * @return Future completed with the token.
+     */
+    public static CompletableFuture<AsyncTokenWithPace> createWithPace(CardExecutor executor) {
+        return executor.submit(() -> {
+            if (!(executor.reader() instanceof NfcSmartCardReader)) {
+                throw new SmartCardReaderException("PACE requires an NFC reader");
+            }
+            return new AsyncTokenWithPace(
+                    TokenWithPace.create((NfcSmartCardReader) executor.reader()), executor);
+        });
+    }
+}
@@ -23,6 +23,8 @@ import static com.google.common.primitives.Bytes.concat;
 
 import android.util.SparseArray;
 
+import androidx.annotation.Nullable;
+
 import com.google.common.base.Charsets;
 import com.google.common.primitives.Bytes;
 
@@ -33,7 +35,11 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
 
+import ee.ria.DigiDoc.smartcardreader.ApduBatch;
+import ee.ria.DigiDoc.smartcardreader.ApduBatchResult;
 import ee.ria.DigiDoc.smartcardreader.ApduResponseException;
+import ee.ria.DigiDoc.smartcardreader.OperationJournal;
+import ee.ria.DigiDoc.smartcardreader.ResponseApdu;
 import ee.ria.DigiDoc.smartcardreader.SmartCardReader;
 import ee.ria.DigiDoc.smartcardreader.SmartCardReaderException;
 
@@ -59,45 +65,104 @@ class ID1 implements Token {
         VERIFY_PIN_MAP.put(CodeType.PUK, (byte) 0x02);
     }
 
+    private static final ApduBatch PERSONAL_DATA_BATCH;
+    static {
+        ApduBatch.Builder builder = ApduBatch.builder()
+                .add(0x00, 0xA4, 0x01, 0x0C, new byte[] {0x50, 0x00}, null);
+        for (int i = 1; i <= 8; i++) {
+            builder.add(0x00, 0xA4, 0x02, 0x0C, new byte[] {0x50, (byte) i}, null)
+                    .add(0x00, 0xB0, 0x00, 0x00, null, 0x00);
+        }
+        PERSONAL_DATA_BATCH = builder.build();
+    }
+
+    /**
+     * Default READ BINARY length when reading certificates, a full short response.
+     */
+    static final int DEFAULT_READ_CHUNK_SIZE = 256;
+
     protected final SmartCardReader reader;
+    private final int readChunkSize;
+    @Nullable private OperationJournal journal;
 
     ID1(SmartCardReader reader) {
+        this(reader, DEFAULT_READ_CHUNK_SIZE);
+    }
+
+    ID1(SmartCardReader reader, int readChunkSize) {
         this.reader = reader;
+        this.readChunkSize = readChunkSize;
+    }
+
+    @Override
+    public void setOperationJournal(@Nullable OperationJournal journal) {
+        this.journal = journal;
     }
 
     @Override
     public PersonalData personalData() throws SmartCardReaderException {
+        OperationJournal journal = this.journal;
+        if (journal == null) {
+            return readPersonalData();
+        }
+        return journal.step("personalData", this::readPersonalData);
+    }
+
+    private PersonalData readPersonalData() throws SmartCardReaderException {
         selectMainAid();
-        reader.transmit(0x00, 0xA4, 0x01, 0x0C, new byte[] {0x50, 0x00}, null);
+        ApduBatchResult result = reader.transmitBatch(PERSONAL_DATA_BATCH).throwIfIncomplete();
         SparseArray<String> data = new SparseArray<>();
         for (int i = 1; i <= 8; i++) {
-            reader.transmit(0x00, 0xA4, 0x02, 0x0C, new byte[] {0x50, (byte) i}, null);
-            byte[] record = reader.transmit(0x00, 0xB0, 0x00, 0x00, null, 0x00);
+            // Record i is read by the READ BINARY following its SELECT
+            byte[] record = result.data(2 * i);
             data.put(i, new String(record, Charsets.UTF_8).trim());
         }
         return ID1PersonalDataParser.parse(data);
     }
 
     @Override
-    public byte[] certificate(CertificateType type) throws SmartCardReaderException {
+    public String documentNumber() throws SmartCardReaderException {
         selectMainAid();
-        reader.transmit(0x00, 0xA4, 0x09, 0x0C, CERT_MAP.get(type), null);
-
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        while (true) {
-            try {
-                stream.write(reader.transmit(0x00, 0xB0, stream.size() >> 8, stream.size(), null, 0x00));
-            } catch (ApduResponseException e) {
-                if (e.sw1 == 0x6B && e.sw2 == 0x00) {
+        reader.transmit(0x00, 0xA4, 0x01, 0x0C, new byte[] {0x50, 0x00}, null);
+        reader.transmit(0x00, 0xA4, 0x02, 0x0C, new byte[] {0x50, 0x07}, null);
+        byte[] record = reader.transmit(0x00, 0xB0, 0x00, 0x00, null, 0x00);
+        return new String(record, Charsets.UTF_8).trim();
+    }
+
+    @Override
+    public byte[] certificate(CertificateType type) throws SmartCardReaderException {
+        OperationJournal journal = this.journal;
+        if (journal == null) {
+            return readCertificate(type, new ByteArrayOutputStream());
+        }
+        String step = "certificate:" + type;
+        return journal.step(step, () -> readCertificate(type, journal.partial(step)));
+    }
+
+    /**
+     * Read the certificate file, continuing after the bytes already in the stream.
+     */
+    private byte[] readCertificate(CertificateType type, ByteArrayOutputStream stream)
+            throws SmartCardReaderException {
+        try (SmartCardReader.Transaction ignored = reader.beginTransaction()) {
+            selectMainAid();
+            reader.transmit(0x00, 0xA4, 0x09, 0x0C, CERT_MAP.get(type), null);
+
+            int le = readChunkSize >= DEFAULT_READ_CHUNK_SIZE ? 0x00 : readChunkSize;
+            while (true) {
+                ResponseApdu response = reader.transmitRaw(0x00, 0xB0, stream.size() >> 8, stream.size(), null, le);
+                if (response.sw() == 0x6B00) {
+                    break;
+                } else if (!response.isSuccess() && !response.isEndOfFile()) {
+                    throw new SmartCardReaderException(new ApduResponseException(response.sw1(), response.sw2()));
+                }
+                stream.write(response.array(), response.arrayOffset(), response.dataLength());
+                if (response.isEndOfFile()) {
                     break;
-                } else {
-                    throw new SmartCardReaderException(e);
                 }
-            } catch (IOException e) {
-                throw new SmartCardReaderException(e);
             }
+            return stream.toByteArray();
         }
-        return stream.toByteArray();
     }
 
     @Override
@@ -140,16 +140,43 @@ class ID1WithPace extends ID1 implements TokenWithPace, ApduEncryptor {
      */
     private final NfcSmartCardReader nfcReader;
 
+    /**
+     * Document number read through the tunnel, the token is used for a single card
+     */
+    private String documentNumber;
+
     /**
      * Initialize ID1 token with NfcSmartCardReader
      * @param reader
      */
     ID1WithPace(NfcSmartCardReader reader) {
-        super(reader);
+        this(reader, DEFAULT_READ_CHUNK_SIZE);
+    }
+
+    /**
+     * Initialize token with NfcSmartCardReader and the read chunk size of the card profile
+     * @param reader
+     * @param readChunkSize
+     */
+    ID1WithPace(NfcSmartCardReader reader, int readChunkSize) {
+        super(reader, readChunkSize);
         nfcReader = reader;
         ssc = new byte[BLOCK_SIZE];
     }
 
+    /**
+     * Document number of the card, read once per token
+     * @return document number
+     * @throws SmartCardReaderException
+     */
+    @Override
+    public String documentNumber() throws SmartCardReaderException {
+        if (documentNumber == null) {
+            documentNumber = super.documentNumber();
+        }
+        return documentNumber;
+    }
+
     /**
      * Start PACE key-exchange with CAN
      * @param can
@@ -163,9 +190,11 @@ class ID1WithPace extends ID1 implements TokenWithPace, ApduEncryptor {
             // In case we were successful we notify the card that from now on
             // everything is encrypted
             nfcReader.setApduEncryptor(this);
+            nfcReader.timeoutController().recordPaceSuccess();
         } catch (SmartCardReaderException ex) {
             if (ex instanceof ApduResponseException aex) {
                 if ((aex.sw1 == (byte) 0x63) && (aex.sw2 == 0x00)) {
+                    nfcReader.timeoutController().recordPaceFailure();
                     throw new PaceTunnelException(ex);
                 }
             }
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2017 - 2025 Riigi Infosüsteemi Amet
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package ee.ria.DigiDoc.idcard;
+
+import androidx.annotation.Nullable;
+
+import org.bouncycastle.util.encoders.Hex;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ee.ria.DigiDoc.smartcardreader.nfc.NfcSmartCardReader;
+import ee.ria.DigiDoc.smartcardreader.nfc.NfcTagInfo;
+
+/**
+ * Card profile identified from tag metadata before any APDU is sent.
+ * <p>
+ * Profiles are registered by the historical bytes of the ATS. The profile selects the
+ * token implementation, which determines the applet AIDs and PACE parameters, and the
+ * chunk size of file reads.
+ * <p>
+ * Identification only replaces the comparison of historical bytes, it does not remove
+ * any APDUs: the tokens already use the fixed PACE parameters of the issued cards instead
+ * of reading EF.CardAccess, and the applet SELECTs are still required by every operation.
+ */
+public final class NfcCardProfile {
+
+    private static final Map<ByteBuffer, NfcCardProfile> PROFILES = new ConcurrentHashMap<>();
+    static {
+        NfcCardProfile id1 = new NfcCardProfile(CardType.ID1, ID1.DEFAULT_READ_CHUNK_SIZE, ID1WithPace::new);
+        register(Hex.decode("0012233f536549440f9000"), id1);
+        register(Hex.decode("0012233f54654944320f9000"), id1);
+        register(Hex.decode("8031d85365494464b085051012233f"),
+                new NfcCardProfile(CardType.THALES, Thales.DEFAULT_READ_CHUNK_SIZE, ThalesWithPace::new));
+    }
+
+    private final CardType cardType;
+    private final int readChunkSize;
+    private final Factory factory;
+
+    /**
+     * @param cardType Type of the card.
+     * @param readChunkSize Number of bytes requested by each READ BINARY.
+     * @param factory Creates the token for the card.
+     */
+    public NfcCardProfile(CardType cardType, int readChunkSize, Factory factory) {
+        if (readChunkSize <= 0 || readChunkSize > 256) {
+            throw new IllegalArgumentException("Invalid read chunk size: " + readChunkSize);
+        }
+        this.cardType = cardType;
+        this.readChunkSize = readChunkSize;
+        this.factory = factory;
+    }
+
+    /**
+     * Register a profile for cards with the given historical bytes, replacing any
+     * previously registered profile.
+     *
+     * @param historicalBytes Historical bytes of the ATS.
+     * @param profile Profile of the card.
+     */
+    public static void register(byte[] historicalBytes, NfcCardProfile profile) {
+        PROFILES.put(ByteBuffer.wrap(historicalBytes.clone()), profile);
+    }
+
+    /**
+     * Identify the card from tag metadata.
+     *
+     * @param tagInfo Metadata of the tag.
+     * @return Profile of the card, null when the card is not supported.
+     */
+    @Nullable
+    public static NfcCardProfile identify(NfcTagInfo tagInfo) {
+        byte[] historicalBytes = tagInfo.historicalBytes();
+        if (historicalBytes == null || !tagInfo.isIsoDep()) {
+            return null;
+        }
+        return PROFILES.get(ByteBuffer.wrap(historicalBytes));
+    }
+
+    public CardType cardType() {
+        return cardType;
+    }
+
+    public int readChunkSize() {
+        return readChunkSize;
+    }
+
+    /**
+     * Create the token for the card.
+     *
+     * @param reader NFC Smart card reader instance, must be connected.
+     * @return TokenWithPace instance.
+     */
+    public TokenWithPace createToken(NfcSmartCardReader reader) {
+        return factory.create(reader, readChunkSize);
+    }
+
+    /**
+     * Creates the token of a card profile.
+     */
+    public interface Factory {
+        TokenWithPace create(NfcSmartCardReader reader, int readChunkSize);
+    }
+}
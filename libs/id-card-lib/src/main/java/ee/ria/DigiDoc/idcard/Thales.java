@@ -24,10 +24,11 @@ import static ee.ria.DigiDoc.idcard.TLV.parseTLVRecursive;
 
 import android.util.SparseArray;
 
+import androidx.annotation.Nullable;
+
 import com.google.common.base.Charsets;
 
 import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -35,6 +36,8 @@ import java.util.Map;
 import java.util.Objects;
 
 import ee.ria.DigiDoc.smartcardreader.ApduResponseException;
+import ee.ria.DigiDoc.smartcardreader.OperationJournal;
+import ee.ria.DigiDoc.smartcardreader.ResponseApdu;
 import ee.ria.DigiDoc.smartcardreader.SmartCardReader;
 import ee.ria.DigiDoc.smartcardreader.SmartCardReaderException;
 
@@ -53,66 +56,109 @@ class Thales implements Token {
         VERIFY_PIN_MAP.put(CodeType.PUK, (byte) 0x83);
     }
 
+    /**
+     * Default READ BINARY length, the card returns at most 0xE7 bytes.
+     */
+    static final int DEFAULT_READ_CHUNK_SIZE = 0xE5;
+
     protected final SmartCardReader reader;
+    private final int readChunkSize;
+    @Nullable private OperationJournal journal;
 
     Thales(SmartCardReader reader) {
+        this(reader, DEFAULT_READ_CHUNK_SIZE);
+    }
+
+    Thales(SmartCardReader reader, int readChunkSize) {
         this.reader = reader;
+        this.readChunkSize = readChunkSize;
+    }
+
+    @Override
+    public void setOperationJournal(@Nullable OperationJournal journal) {
+        this.journal = journal;
     }
 
     @Override
     public PersonalData personalData() throws SmartCardReaderException {
+        OperationJournal journal = this.journal;
+        if (journal == null) {
+            return readPersonalData();
+        }
+        return journal.step("personalData", this::readPersonalData);
+    }
+
+    private PersonalData readPersonalData() throws SmartCardReaderException {
         selectMainAid();
         byte[] bytes = new byte[] {(byte) 0xDF,(byte) 0xDD};
         reader.transmit(0x00, 0xA4, 0x08, 0x0C, bytes, null);
         SparseArray<String> data = new SparseArray<>();
         for (int i = 1; i <= 8; i++) {
-            byte[] record = readFile(0x02, new byte[] {0x50, (byte) i});
+            byte[] record = readFile(0x02, new byte[] {0x50, (byte) i}, new ByteArrayOutputStream());
             data.put(i, new String(record, Charsets.UTF_8).trim());
         }
         return ThalesPersonalDataParser.parse(data);
     }
 
     @Override
-    public byte[] certificate(CertificateType type) throws SmartCardReaderException {
+    public String documentNumber() throws SmartCardReaderException {
         selectMainAid();
-        return readFile(0x08, CERT_MAP.get(type));
+        reader.transmit(0x00, 0xA4, 0x08, 0x0C, new byte[] {(byte) 0xDF, (byte) 0xDD}, null);
+        byte[] record = readFile(0x02, new byte[] {0x50, 0x07}, new ByteArrayOutputStream());
+        return new String(record, Charsets.UTF_8).trim();
+    }
+
+    @Override
+    public byte[] certificate(CertificateType type) throws SmartCardReaderException {
+        OperationJournal journal = this.journal;
+        if (journal == null) {
+            selectMainAid();
+            return readFile(0x08, CERT_MAP.get(type), new ByteArrayOutputStream());
+        }
+        String step = "certificate:" + type;
+        return journal.step(step, () -> {
+            selectMainAid();
+            return readFile(0x08, CERT_MAP.get(type), journal.partial(step));
+        });
     }
 
-    private byte[] readFile(int p1, byte[] bytes) throws SmartCardReaderException {
-        int size = 0xE5;
-        byte[] fci = reader.transmit(0x00, 0xA4, p1, 0x04, bytes, null);
+    /**
+     * Read the file, continuing after the bytes already in the stream.
+     */
+    private byte[] readFile(int p1, byte[] bytes, ByteArrayOutputStream stream) throws SmartCardReaderException {
+        try (SmartCardReader.Transaction ignored = reader.beginTransaction()) {
+            int size = 0xE5;
+            byte[] fci = reader.transmit(0x00, 0xA4, p1, 0x04, bytes, null);
 
-        List<TLV> records = parseTLVRecursive(fci);
+            List<TLV> records = parseTLVRecursive(fci);
 
-        for (TLV record : records) {
-            int tag = record.getTag();
-            if (tag == 0x80 || tag == 0x81) {
-                byte[] value = record.getValue();
-                if (value != null && value.length >= 2) {
-                    size = ((value[0] & 0xFF) << 8) | (value[1] & 0xFF);
+            for (TLV record : records) {
+                int tag = record.getTag();
+                if (tag == 0x80 || tag == 0x81) {
+                    byte[] value = record.getValue();
+                    if (value != null && value.length >= 2) {
+                        size = ((value[0] & 0xFF) << 8) | (value[1] & 0xFF);
+                    }
                 }
             }
-        }
 
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        while (stream.size() < size) {
-            int offset = stream.size();
-            int remaining = size - offset;
-            int le = Math.min(0xE5, remaining); // read max 0xE7 bytes or what's left
-            try {
-                byte[] response = reader.transmit(0x00, 0xB0, offset >> 8, offset & 0xFF, null, le);
-                stream.write(response);
-            } catch (ApduResponseException e) {
-                if (e.sw1 == (byte)0x6B && e.sw2 == (byte)0x00) {
+            while (stream.size() < size) {
+                int offset = stream.size();
+                int remaining = size - offset;
+                int le = Math.min(readChunkSize, remaining);
+                ResponseApdu response = reader.transmitRaw(0x00, 0xB0, offset >> 8, offset & 0xFF, null, le);
+                if (response.sw() == 0x6B00) {
+                    break;
+                } else if (!response.isSuccess() && !response.isEndOfFile()) {
+                    throw new SmartCardReaderException(new ApduResponseException(response.sw1(), response.sw2()));
+                }
+                stream.write(response.array(), response.arrayOffset(), response.dataLength());
+                if (response.isEndOfFile()) {
                     break;
-                } else {
-                    throw new SmartCardReaderException(e);
                 }
-            } catch (IOException e) {
-                throw new SmartCardReaderException(e);
             }
+            return stream.toByteArray();
         }
-        return stream.toByteArray();
     }
 
     private static int extractTagValue(byte[] data, int tag) {
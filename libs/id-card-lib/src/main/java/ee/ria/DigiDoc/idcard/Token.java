@@ -19,11 +19,14 @@
 
 package ee.ria.DigiDoc.idcard;
 
+import androidx.annotation.Nullable;
+
 import org.bouncycastle.util.encoders.Hex;
 
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
+import ee.ria.DigiDoc.smartcardreader.OperationJournal;
 import ee.ria.DigiDoc.smartcardreader.SmartCardReader;
 import ee.ria.DigiDoc.smartcardreader.SmartCardReaderException;
 import ee.ria.DigiDoc.utilsLib.logging.LoggingUtil;
@@ -34,6 +37,15 @@ import ee.ria.DigiDoc.utilsLib.logging.LoggingUtil;
 public interface Token {
     String TAG = Token.class.getName();
 
+    /**
+     * Record completed reads in the journal, so that they are not repeated when the
+     * operation is run again after the card was lost.
+     *
+     * @param journal Journal of the operation, null to stop recording.
+     */
+    default void setOperationJournal(@Nullable OperationJournal journal) {
+    }
+
     /**
      * Read personal information of the cardholder.
      *
@@ -42,6 +54,17 @@ public interface Token {
      */
     PersonalData personalData() throws SmartCardReaderException;
 
+    /**
+     * Read the document number of the card, identifies the card without reading all
+     * personal data.
+     *
+     * @return Document number of the card.
+     * @throws SmartCardReaderException When reading failed.
+     */
+    default String documentNumber() throws SmartCardReaderException {
+        throw new UnsupportedOperationException("Document number is not supported by this token");
+    }
+
     /**
      * Change PIN1/PIN2/PUK code.
      *
@@ -19,12 +19,11 @@
 
 package ee.ria.DigiDoc.idcard;
 
-import org.bouncycastle.util.encoders.Hex;
-
-import java.util.Arrays;
-
+import ee.ria.DigiDoc.smartcardreader.OperationJournal;
 import ee.ria.DigiDoc.smartcardreader.SmartCardReaderException;
+import ee.ria.DigiDoc.smartcardreader.nfc.NfcCardSession;
 import ee.ria.DigiDoc.smartcardreader.nfc.NfcSmartCardReader;
+import ee.ria.DigiDoc.smartcardreader.nfc.NfcTagInfo;
 import ee.ria.DigiDoc.utilsLib.logging.LoggingUtil;
 
 /**
@@ -44,30 +43,78 @@ public interface TokenWithPace extends Token {
     /**
      * Create an instance of TokenWithPace based on the current card in the NFC-reader.
      * <p>
-     * We detect the card type by historical bytes - a subset of ATS. We call the method
-     * atr() since we inherit from wired interface specific classes.
+     * We detect the card type from the tag metadata, mainly the historical bytes - a subset
+     * of ATS, using the card profiles registered in {@link NfcCardProfile}.
      *
      * @param reader NFC Smart card reader instance, must be connected.
      * @return TokenWithPace instance.
      * @throws SmartCardReaderException When card is not supported or reader is not connected.
      */
     static TokenWithPace create(NfcSmartCardReader reader) throws SmartCardReaderException {
-        byte[] atr = reader.atr();
-        LoggingUtil.Companion.debugLog(TAG, "ATR: " + (atr == null ? "null" : Hex.toHexString(atr)), null);
+        NfcTagInfo tagInfo = reader.tagInfo();
+        LoggingUtil.Companion.debugLog(TAG, "Tag: " + tagInfo, null);
 
-        if (atr == null) {
+        if (tagInfo.historicalBytes() == null) {
             throw new SmartCardReaderException("ATR/ATS cannot be null");
         }
-        if (Arrays.equals(Hex.decode("0012233f536549440f9000"), atr)) {
-            return new ID1WithPace(reader);
+        NfcCardProfile profile = NfcCardProfile.identify(tagInfo);
+        if (profile != null) {
+            return profile.createToken(reader);
         }
-        if (Arrays.equals(Hex.decode("0012233f54654944320f9000"), atr)) {
-            return new ID1WithPace(reader);
+
+        throw new SmartCardReaderException("ATS not supported");
+    }
+
+    /**
+     * Get the tunnelled token of the card session.
+     * <p>
+     * The token attached to the session is reused while its secure messaging tunnel is
+     * still established, otherwise a new token is created, tunnelled with the CAN and
+     * attached to the session.
+     *
+     * @param session NFC card session, must be active.
+     * @param can Card access number, used only when a new tunnel is needed.
+     * @return TokenWithPace instance with established tunnel.
+     * @throws SmartCardReaderException When session is not active, card is not supported or PACE fails.
+     */
+    static TokenWithPace connect(NfcCardSession session, String can) throws SmartCardReaderException {
+        if (!session.isActive()) {
+            throw new SmartCardReaderException("Card session is not active");
         }
-        if (Arrays.equals(Hex.decode("8031d85365494464b085051012233f"), atr)) {
-            return new ThalesWithPace(reader);
+        Object attachment = session.attachment();
+        if (attachment instanceof TokenWithPace && session.isSecureMessagingEstablished()) {
+            return (TokenWithPace) attachment;
         }
+        TokenWithPace token = create(session.reader());
+        token.tunnel(can);
+        session.attach(token);
+        return token;
+    }
 
-        throw new SmartCardReaderException("ATS not supported");
+    /**
+     * Get the tunnelled token of the card session for a resumable operation.
+     * <p>
+     * The token records its reads in the journal. When the card is lost during the
+     * operation, the operation can be run again with a token from the next session of the
+     * same card: completed steps are not repeated and interrupted file reads continue from
+     * where they stopped. Other steps, such as signing, can be recorded with
+     * {@link OperationJournal#step}.
+     * <p>
+     * The journal is bound to the document number read through the tunnel, a CAN does
+     * not identify the card and may be shared by several cards. The document number is
+     * read once per session, resuming on the same session sends no extra APDUs.
+     *
+     * @param session NFC card session, must be active.
+     * @param can Card access number, used only to establish the tunnel.
+     * @param journal Journal of the operation.
+     * @return TokenWithPace instance with established tunnel.
+     * @throws SmartCardReaderException When session is not active, card is not supported or PACE fails.
+     */
+    static TokenWithPace resume(NfcCardSession session, String can, OperationJournal journal)
+            throws SmartCardReaderException {
+        TokenWithPace token = connect(session, can);
+        journal.bind(token.documentNumber());
+        token.setOperationJournal(journal);
+        return token;
     }
 }
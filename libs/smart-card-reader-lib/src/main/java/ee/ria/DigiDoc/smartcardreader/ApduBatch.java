@@ -0,0 +1,126 @@
+/*
+ * Copyright 2017 - 2025 Riigi Infosüsteemi Amet
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package ee.ria.DigiDoc.smartcardreader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Ordered list of commands executed with {@link SmartCardReader#transmitBatch(ApduBatch)}.
+ * <p>
+ * Each command lists the status words it is allowed to end with, execution stops at
+ * the first command that ends with any other status word.
+ */
+public final class ApduBatch {
+
+    /**
+     * Status word of a successful command.
+     */
+    public static final int SW_SUCCESS = 0x9000;
+
+    /**
+     * Status word of a read that reached the end of file before reading the requested
+     * number of bytes, accepted with its data like {@link SmartCardReader#transmit}.
+     */
+    public static final int SW_END_OF_FILE = 0x6282;
+
+    private final List<Command> commands;
+
+    private ApduBatch(List<Command> commands) {
+        this.commands = Collections.unmodifiableList(commands);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public List<Command> commands() {
+        return commands;
+    }
+
+    public int size() {
+        return commands.size();
+    }
+
+    /**
+     * Single command of the batch.
+     */
+    public static final class Command {
+        public final int cla;
+        public final int ins;
+        public final int p1;
+        public final int p2;
+        public final byte[] data;
+        public final Integer le;
+        private final int[] expectedSw;
+
+        Command(int cla, int ins, int p1, int p2, byte[] data, Integer le, int[] expectedSw) {
+            this.cla = cla;
+            this.ins = ins;
+            this.p1 = p1;
+            this.p2 = p2;
+            this.data = data;
+            this.le = le;
+            this.expectedSw = expectedSw;
+        }
+
+        /**
+         * @param sw Status word the command ended with.
+         * @return True when the status word allows the batch to continue.
+         */
+        public boolean isExpected(int sw) {
+            for (int expected : expectedSw) {
+                if (expected == sw) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    public static final class Builder {
+        private final List<Command> commands = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Add command that is expected to end with the status words accepted by
+         * {@link SmartCardReader#transmit}, 0x9000 or 0x6282.
+         */
+        public Builder add(int cla, int ins, int p1, int p2, byte[] data, Integer le) {
+            return add(cla, ins, p1, p2, data, le, SW_SUCCESS, SW_END_OF_FILE);
+        }
+
+        /**
+         * Add command that is expected to end with one of the given status words.
+         */
+        public Builder add(int cla, int ins, int p1, int p2, byte[] data, Integer le,
+                           int... expectedSw) {
+            commands.add(new Command(cla, ins, p1, p2, data, le, expectedSw.clone()));
+            return this;
+        }
+
+        public ApduBatch build() {
+            return new ApduBatch(new ArrayList<>(commands));
+        }
+    }
+}
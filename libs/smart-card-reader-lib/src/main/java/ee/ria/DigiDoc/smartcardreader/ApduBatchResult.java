@@ -0,0 +1,119 @@
+/*
+ * Copyright 2017 - 2025 Riigi Infosüsteemi Amet
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package ee.ria.DigiDoc.smartcardreader;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Responses of an executed {@link ApduBatch}.
+ * <p>
+ * Contains the response data and status word of every command that was sent. When a
+ * command ended with an unexpected status word, it is the last one in the result.
+ */
+public final class ApduBatchResult {
+
+    private final ApduBatch batch;
+    private final byte[][] data;
+    private final int[] sw;
+    private int count;
+
+    ApduBatchResult(ApduBatch batch) {
+        this.batch = batch;
+        this.data = new byte[batch.size()][];
+        this.sw = new int[batch.size()];
+    }
+
+    /**
+     * Record response of the next command in the batch.
+     *
+     * @param data Response data, without status words.
+     * @param sw Status word.
+     * @return True when the status word was expected and the batch may continue.
+     */
+    boolean add(byte[] data, int sw) {
+        this.data[count] = data;
+        this.sw[count] = sw;
+        return batch.commands().get(count++).isExpected(sw);
+    }
+
+    /**
+     * @return Number of commands that were sent.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return True when all commands were sent and ended with expected status words.
+     */
+    public boolean isComplete() {
+        return count == batch.size() && (count == 0 || batch.commands().get(count - 1).isExpected(sw[count - 1]));
+    }
+
+    /**
+     * @param index Index of the command in the batch.
+     * @return Response data of the command, without status words.
+     */
+    public byte[] data(int index) {
+        checkIndex(index);
+        return data[index];
+    }
+
+    /**
+     * @param index Index of the command in the batch.
+     * @return Status word of the command, e.g. 0x9000.
+     */
+    public int sw(int index) {
+        checkIndex(index);
+        return sw[index];
+    }
+
+    /**
+     * Throw the status word of the failed command as an exception.
+     *
+     * @return This result when the batch completed.
+     * @throws ApduResponseException When a command ended with an unexpected status word.
+     * @throws SmartCardReaderException When the batch was not executed.
+     */
+    public ApduBatchResult throwIfIncomplete() throws SmartCardReaderException {
+        if (isComplete()) {
+            return this;
+        }
+        if (count == 0) {
+            throw new SmartCardReaderException("APDU batch was not executed");
+        }
+        int failed = sw[count - 1];
+        throw new ApduResponseException((byte) (failed >> 8), (byte) failed);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Command " + index + " of " + count + " sent");
+        }
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "ApduBatchResult{size=" + count + ", sw=" + Arrays.toString(Arrays.copyOf(sw, count)) + "}";
+    }
+}
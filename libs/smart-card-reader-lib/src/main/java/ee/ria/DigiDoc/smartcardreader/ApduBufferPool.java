@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 - 2025 Riigi Infosüsteemi Amet
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package ee.ria.DigiDoc.smartcardreader;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Pool of reusable heap buffers for APDU encoding and reception.
+ * <p>
+ * Buffers are backed by arrays so that they can be handed to transports that
+ * only accept {@code byte[]}.
+ */
+public final class ApduBufferPool {
+
+    /**
+     * Default buffer size, fits a short APDU command or response.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 261;
+
+    private static final int DEFAULT_MAX_POOLED = 4;
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+
+    public ApduBufferPool() {
+        this(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED);
+    }
+
+    /**
+     * @param bufferSize Minimum capacity of newly allocated buffers.
+     * @param maxPooled Maximum number of idle buffers kept in the pool.
+     */
+    public ApduBufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * Take a buffer with at least the requested capacity from the pool,
+     * allocating a new one when none is available.
+     *
+     * @param minCapacity Required capacity in bytes.
+     * @return Cleared buffer.
+     */
+    public synchronized ByteBuffer acquire(int minCapacity) {
+        Iterator<ByteBuffer> iterator = free.iterator();
+        while (iterator.hasNext()) {
+            ByteBuffer buffer = iterator.next();
+            if (buffer.capacity() >= minCapacity) {
+                iterator.remove();
+                buffer.clear();
+                return buffer;
+            }
+        }
+        return ByteBuffer.allocate(Math.max(bufferSize, minCapacity));
+    }
+
+    /**
+     * Return a buffer to the pool. Buffers over the pool limit are left for GC.
+     *
+     * @param buffer Buffer that is no longer used, may be null.
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        if (buffer != null && buffer.hasArray() && free.size() < maxPooled) {
+            free.push(buffer);
+        }
+    }
+
+    public int bufferSize() {
+        return bufferSize;
+    }
+}
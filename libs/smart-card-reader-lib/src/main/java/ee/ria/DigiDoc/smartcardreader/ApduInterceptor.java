@@ -0,0 +1,58 @@
+/*
+ * Copyright 2017 - 2025 Riigi Infosüsteemi Amet
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package ee.ria.DigiDoc.smartcardreader;
+
+/**
+ * Intercepts APDU exchanges of a {@link SmartCardReader}.
+ * <p>
+ * Interceptors registered with {@link SmartCardReader#addInterceptor(ApduInterceptor)}
+ * see every command passed to
+ * {@link SmartCardReader#transmitRaw(int, int, int, int, byte[], Integer)} before
+ * chaining, secure messaging and GET RESPONSE handling. Interceptors registered with
+ * {@link SmartCardReader#addTransportInterceptor(ApduInterceptor)} see every APDU as
+ * it is sent to the card.
+ */
+public interface ApduInterceptor {
+
+    /**
+     * Handle the exchange, usually by calling {@link Chain#proceed(CommandApdu)}.
+     *
+     * @param chain Remaining interceptors and the reader.
+     * @return Response to the command.
+     * @throws SmartCardReaderException When something fails.
+     */
+    ResponseApdu intercept(Chain chain) throws SmartCardReaderException;
+
+    interface Chain {
+
+        SmartCardReader reader();
+
+        CommandApdu command();
+
+        /**
+         * Pass the command to the next interceptor or to the reader.
+         *
+         * @param command Command to send, may differ from {@link #command()}.
+         * @return Response to the command.
+         * @throws SmartCardReaderException When something fails.
+         */
+        ResponseApdu proceed(CommandApdu command) throws SmartCardReaderException;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2017 - 2025 Riigi Infosüsteemi Amet
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package ee.ria.DigiDoc.smartcardreader;
+
+import org.bouncycastle.util.encoders.Hex;
+
+import ee.ria.DigiDoc.utilsLib.logging.LoggingUtil;
+
+/**
+ * Logs commands, status words and exchange duration.
+ * <p>
+ * Command data of VERIFY, CHANGE REFERENCE DATA and RESET RETRY COUNTER is replaced
+ * with its length so that PIN and PUK codes never reach the log.
+ */
+public final class ApduLoggingInterceptor implements ApduInterceptor {
+    private static final String TAG = ApduLoggingInterceptor.class.getName();
+
+    @Override
+    public ResponseApdu intercept(Chain chain) throws SmartCardReaderException {
+        CommandApdu command = chain.command();
+        long start = System.nanoTime();
+        ResponseApdu response = chain.proceed(command);
+        long duration = (System.nanoTime() - start) / 1000000;
+        LoggingUtil.Companion.debugLog(TAG, String.format("%s -> %04X (%d bytes) in %d ms",
+                format(command), response.sw(), response.dataLength(), duration), null);
+        return response;
+    }
+
+    static String format(CommandApdu command) {
+        if (!isSensitive(command.ins())) {
+            return Hex.toHexString(command.array(), 0, command.length());
+        }
+        return Hex.toHexString(command.array(), 0, 4) + " <" + command.dataLength() + " bytes redacted>";
+    }
+
+    private static boolean isSensitive(int ins) {
+        // VERIFY, CHANGE REFERENCE DATA, RESET RETRY COUNTER
+        return ins == 0x20 || ins == 0x24 || ins == 0x2C;
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2017 - 2025 Riigi Infosüsteemi Amet
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package ee.ria.DigiDoc.smartcardreader;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Memoizes responses of read-only commands within a card session.
+ * <p>
+ * Responses of SELECT, READ BINARY and GET DATA are cached by the file selection they
+ * were sent in and the command bytes. A cached SELECT is not sent to the card, the
+ * selection is restored by replaying the SELECT commands only when a command that is
+ * not cached has to be sent. Any other instruction (VERIFY, CHANGE REFERENCE DATA,
+ * RESET RETRY COUNTER, PSO, MSE, ...) clears the cache, as it may change the security
+ * state of the card.
+ * <p>
+ * Register with {@link SmartCardReader#addInterceptor(ApduInterceptor)}; the cache is
+ * bound to the session of that reader.
+ */
+public final class ApduResponseCache implements ApduInterceptor {
+
+    private static final int INS_SELECT = 0xA4;
+    private static final int P1_SELECT_EF = 0x02;
+    private static final int INS_READ_BINARY = 0xB0;
+    private static final int INS_READ_BINARY_ODD = 0xB1;
+    private static final int INS_GET_DATA = 0xCA;
+    private static final int INS_GET_DATA_ODD = 0xCB;
+
+    private final Map<Key, byte[]> responses = new HashMap<>();
+    /**
+     * SELECT commands that define the current selection as seen by the caller.
+     */
+    private final List<byte[]> selection = new ArrayList<>();
+    /**
+     * SELECT commands that define the current selection on the card.
+     */
+    private final List<byte[]> cardSelection = new ArrayList<>();
+    private int hits;
+    private int misses;
+
+    @Override
+    public synchronized ResponseApdu intercept(Chain chain) throws SmartCardReaderException {
+        CommandApdu command = chain.command();
+        if (command.ins() == INS_SELECT) {
+            return select(chain, command);
+        } else if (isRead(command)) {
+            return read(chain, command);
+        }
+        restoreSelection(chain);
+        responses.clear();
+        return chain.proceed(command);
+    }
+
+    /**
+     * Drop all cached responses.
+     */
+    public synchronized void clear() {
+        responses.clear();
+    }
+
+    public synchronized int hits() {
+        return hits;
+    }
+
+    public synchronized int misses() {
+        return misses;
+    }
+
+    private ResponseApdu select(Chain chain, CommandApdu command) throws SmartCardReaderException {
+        byte[] bytes = command.toByteArray();
+        List<byte[]> path = new ArrayList<>();
+        if (!isAbsolute(command)) {
+            path.addAll(selection);
+            if (isEfSelect(bytes) && !path.isEmpty() && isEfSelect(path.get(path.size() - 1))) {
+                // Selecting an EF keeps the current DF, the new EF replaces the previous one
+                path.remove(path.size() - 1);
+            }
+        }
+        path.add(bytes);
+
+        Key key = new Key(path, null);
+        byte[] cached = responses.get(key);
+        if (cached != null) {
+            hits++;
+            setPath(selection, path);
+            return ResponseApdu.of(cached);
+        }
+
+        misses++;
+        restoreSelection(chain);
+        ResponseApdu response = chain.proceed(command);
+        if (response.isSuccess()) {
+            setPath(selection, path);
+            setPath(cardSelection, path);
+            responses.put(key, response.toByteArray());
+        }
+        return response;
+    }
+
+    private ResponseApdu read(Chain chain, CommandApdu command) throws SmartCardReaderException {
+        byte[] bytes = command.toByteArray();
+        Key key = new Key(selection, bytes);
+        byte[] cached = responses.get(key);
+        if (cached != null) {
+            hits++;
+            return ResponseApdu.of(cached);
+        }
+
+        misses++;
+        restoreSelection(chain);
+        ResponseApdu response = chain.proceed(command);
+        int sw = response.sw();
+        if (sw == 0x9000 || sw == 0x6282 || sw == 0x6B00) {
+            responses.put(key, response.toByteArray());
+        }
+        return response;
+    }
+
+    /**
+     * Send the SELECT commands that were answered from the cache, so that the card
+     * has the selection the caller expects.
+     */
+    private void restoreSelection(Chain chain) throws SmartCardReaderException {
+        int from = isPrefix(cardSelection, selection) ? cardSelection.size() : 0;
+        if (from == selection.size() && from == cardSelection.size()) {
+            return;
+        }
+        if (from == 0) {
+            cardSelection.clear();
+        }
+        for (int i = from; i < selection.size(); i++) {
+            byte[] select = selection.get(i);
+            ResponseApdu response = chain.proceed(CommandApdu.wrap(select));
+            if (!response.isSuccess()) {
+                responses.clear();
+                setPath(selection, cardSelection);
+                throw new SmartCardReaderException(
+                        String.format(Locale.ROOT, "Failed to restore file selection, sw=%04X", response.sw()));
+            }
+            cardSelection.add(select);
+        }
+    }
+
+    private static boolean isRead(CommandApdu command) {
+        switch (command.ins()) {
+            case INS_READ_BINARY:
+                // P1 b8 set means short EF identifier, which changes the current EF
+                return (command.p1() & 0x80) == 0;
+            case INS_READ_BINARY_ODD:
+            case INS_GET_DATA:
+            case INS_GET_DATA_ODD:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Whether the SELECT does not depend on the current selection: selection by DF name,
+     * by path from MF or of the MF itself.
+     */
+    private static boolean isAbsolute(CommandApdu command) {
+        int p1 = command.p1();
+        if (p1 == 0x04 || p1 == 0x08) {
+            return true;
+        }
+        byte[] data = command.data();
+        return p1 == 0x00 && (data == null
+                || (data.length == 2 && data[0] == 0x3F && data[1] == 0x00));
+    }
+
+    /**
+     * Whether the SELECT selects an EF under the current DF, which stays current.
+     */
+    private static boolean isEfSelect(byte[] select) {
+        return select.length > 2 && select[2] == P1_SELECT_EF;
+    }
+
+    private static boolean isPrefix(List<byte[]> prefix, List<byte[]> list) {
+        if (prefix.size() > list.size()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.size(); i++) {
+            if (!Arrays.equals(prefix.get(i), list.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void setPath(List<byte[]> target, List<byte[]> path) {
+        if (target != path) {
+            target.clear();
+            target.addAll(path);
+        }
+    }
+
+    /**
+     * Selection path and command bytes, encoded with length prefixes.
+     */
+    private static final class Key {
+        private final byte[] bytes;
+        private final int hash;
+
+        Key(List<byte[]> path, byte[] command) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (byte[] select : path) {
+                out.write(select.length);
+                out.write(select, 0, select.length);
+            }
+            if (command != null) {
+                out.write(0xFF);
+                out.write(command, 0, command.length);
+            }
+            bytes = out.toByteArray();
+            hash = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(bytes, ((Key) o).bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017 - 2025 Riigi Infosüsteemi Amet
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package ee.ria.DigiDoc.smartcardreader;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Single thread executor for card I/O of one reader.
+ * <p>
+ * Tasks run in submission order, each inside a reader
+ * {@link SmartCardReader#beginTransaction() transaction}. Callers get a
+ * {@link CompletableFuture} and can continue with UI or cryptographic work while the
+ * card is busy, binder and main threads never block on card exchanges.
+ */
+public final class CardExecutor implements AutoCloseable {
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private final SmartCardReader reader;
+    private final ExecutorService executor;
+
+    public CardExecutor(SmartCardReader reader) {
+        this.reader = reader;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "card-io-" + THREAD_COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public SmartCardReader reader() {
+        return reader;
+    }
+
+    /**
+     * Queue a task for execution on the card I/O thread.
+     *
+     * @param task Task that communicates with the card.
+     * @return Future completed with the task result or exception. Cancelling the
+     * future before the task starts makes the task skip without touching the card, it
+     * stays queued until its turn. Cancelling a running task does not interrupt it.
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                if (future.isDone()) {
+                    return;
+                }
+                try (SmartCardReader.Transaction ignored = reader.beginTransaction()) {
+                    future.complete(task.call());
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new SmartCardReaderException("Card executor is closed", e));
+        }
+        return future;
+    }
+
+    /**
+     * Stop accepting tasks, already queued tasks are still executed.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2017 - 2025 Riigi Infosüsteemi Amet
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package ee.ria.DigiDoc.smartcardreader;
+
+import androidx.annotation.NonNull;
+
+import org.bouncycastle.util.encoders.Hex;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Command APDU encoded into a reusable buffer.
+ * <p>
+ * The APDU occupies bytes {@code [0, length())} of {@link #array()}. Encoding a new
+ * command reuses the same buffer, which only grows when a larger command is encoded.
+ */
+public final class CommandApdu {
+
+    private final ApduBufferPool pool;
+    private ByteBuffer buffer;
+    private int length;
+    private int dataOffset;
+    private int dataLength;
+    private Integer le;
+
+    /**
+     * Create command backed by a buffer from the given pool.
+     *
+     * @param pool Buffer pool.
+     */
+    public CommandApdu(ApduBufferPool pool) {
+        this.pool = pool;
+        this.buffer = pool.acquire(pool.bufferSize());
+    }
+
+    private CommandApdu(byte[] apdu) {
+        this.pool = null;
+        this.buffer = ByteBuffer.wrap(apdu);
+        this.length = apdu.length;
+        parse(apdu, apdu.length);
+    }
+
+    private CommandApdu() {
+        this.pool = null;
+        this.buffer = ByteBuffer.allocate(0);
+    }
+
+    /**
+     * Wrap already encoded APDU bytes without copying.
+     *
+     * @param apdu Encoded APDU.
+     * @return Command APDU.
+     * @throws IllegalArgumentException When the bytes are not a valid APDU.
+     */
+    public static CommandApdu wrap(byte[] apdu) {
+        return new CommandApdu(apdu);
+    }
+
+    /**
+     * Encode a standalone command, extended length is used when data or Le do not fit
+     * a short APDU.
+     *
+     * @return Command APDU.
+     */
+    public static CommandApdu of(int cla, int ins, int p1, int p2, byte[] data, Integer le) {
+        int dataLength = data == null ? 0 : data.length;
+        boolean extended = dataLength > 255 || (le != null && le > 256);
+        return new CommandApdu().encode(cla, ins, p1, p2, data, 0, dataLength, le, extended);
+    }
+
+    /**
+     * Encode a command into the buffer, replacing the previous command.
+     *
+     * @param cla Class byte.
+     * @param ins Instruction byte.
+     * @param p1 Parameter 1.
+     * @param p2 Parameter 2.
+     * @param data Command data, may be null.
+     * @param offset Offset of the command data in {@code data}.
+     * @param dataLength Number of command data bytes.
+     * @param le Expected response length, null when absent. 256 (short) and 65536
+     *           (extended) are encoded as 0.
+     * @param extended Whether to use extended length encoding.
+     * @return This command.
+     */
+    public CommandApdu encode(int cla, int ins, int p1, int p2, byte[] data, int offset,
+                              int dataLength, Integer le, boolean extended) {
+        int size = 4;
+        if (dataLength > 0) {
+            size += (extended ? 3 : 1) + dataLength;
+        }
+        if (le != null) {
+            size += extended ? (dataLength > 0 ? 2 : 3) : 1;
+        }
+        ensureCapacity(size);
+
+        this.dataLength = dataLength;
+        this.dataOffset = extended ? 7 : 5;
+        this.le = le;
+        byte[] apdu = buffer.array();
+        apdu[0] = (byte) cla;
+        apdu[1] = (byte) ins;
+        apdu[2] = (byte) p1;
+        apdu[3] = (byte) p2;
+        int cursor = 4;
+        if (dataLength > 0) {
+            if (extended) {
+                apdu[cursor++] = 0x00;
+                apdu[cursor++] = (byte) (dataLength >> 8);
+            }
+            apdu[cursor++] = (byte) dataLength;
+            System.arraycopy(data, offset, apdu, cursor, dataLength);
+            cursor += dataLength;
+        }
+        if (le != null) {
+            if (extended) {
+                if (dataLength == 0) {
+                    apdu[cursor++] = 0x00;
+                }
+                apdu[cursor++] = (byte) (le >> 8);
+            }
+            apdu[cursor++] = le.byteValue();
+        }
+        length = cursor;
+        return this;
+    }
+
+    private void parse(byte[] apdu, int length) {
+        if (length < 4) {
+            throw new IllegalArgumentException("APDU must contain at least 4 bytes");
+        }
+        dataOffset = 5;
+        dataLength = 0;
+        le = null;
+        if (length == 4) {
+            return;
+        }
+        int b4 = apdu[4] & 0xFF;
+        if (length == 5) {
+            le = b4;
+        } else if (b4 != 0 && length == 5 + b4) {
+            dataLength = b4;
+        } else if (b4 != 0 && length == 6 + b4) {
+            dataLength = b4;
+            le = apdu[length - 1] & 0xFF;
+        } else if (b4 == 0 && length == 7) {
+            le = ((apdu[5] & 0xFF) << 8) | (apdu[6] & 0xFF);
+        } else if (b4 == 0 && length > 7) {
+            int lc = ((apdu[5] & 0xFF) << 8) | (apdu[6] & 0xFF);
+            dataOffset = 7;
+            dataLength = lc;
+            if (length == 9 + lc) {
+                le = ((apdu[length - 2] & 0xFF) << 8) | (apdu[length - 1] & 0xFF);
+            } else if (length != 7 + lc) {
+                throw new IllegalArgumentException("Invalid extended APDU length");
+            }
+        } else {
+            throw new IllegalArgumentException("Invalid APDU length");
+        }
+    }
+
+    private void ensureCapacity(int size) {
+        if (buffer.capacity() >= size) {
+            return;
+        }
+        if (pool == null) {
+            buffer = ByteBuffer.allocate(size);
+        } else {
+            pool.release(buffer);
+            buffer = pool.acquire(size);
+        }
+    }
+
+    public int cla() {
+        return buffer.array()[0] & 0xFF;
+    }
+
+    public int ins() {
+        return buffer.array()[1] & 0xFF;
+    }
+
+    public int p1() {
+        return buffer.array()[2] & 0xFF;
+    }
+
+    public int p2() {
+        return buffer.array()[3] & 0xFF;
+    }
+
+    /**
+     * @return Number of command data bytes.
+     */
+    public int dataLength() {
+        return dataLength;
+    }
+
+    /**
+     * @return Copy of the command data, null when the command has no data.
+     */
+    public byte[] data() {
+        if (dataLength == 0) {
+            return null;
+        }
+        return Arrays.copyOfRange(buffer.array(), dataOffset, dataOffset + dataLength);
+    }
+
+    /**
+     * @return Expected response length, null when absent. 0 requests the maximum length.
+     */
+    public Integer le() {
+        return le;
+    }
+
+    /**
+     * @return Length of the encoded APDU in bytes.
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Backing array, the APDU occupies bytes {@code [0, length())}.
+     *
+     * @return Backing array.
+     */
+    public byte[] array() {
+        return buffer.array();
+    }
+
+    /**
+     * @return Read-only view of the encoded APDU.
+     */
+    public ByteBuffer buffer() {
+        return ByteBuffer.wrap(buffer.array(), 0, length).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * @return Copy of the encoded APDU.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer.array(), length);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "CommandApdu{" + Hex.toHexString(buffer.array(), 0, length) + "}";
+    }
+}
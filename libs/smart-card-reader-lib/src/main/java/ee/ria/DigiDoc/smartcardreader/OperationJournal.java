@@ -0,0 +1,127 @@
+/*
+ * Copyright 2017 - 2025 Riigi Infosüsteemi Amet
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package ee.ria.DigiDoc.smartcardreader;
+
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Journal of a multi-step card operation that survives losing the card.
+ * <p>
+ * Completed steps keep their results and partially read files keep the bytes read so
+ * far. When the operation is run again after the card is reconnected, completed steps
+ * return their recorded results and file reads continue from the recorded offset.
+ * <p>
+ * The journal is bound to a card with {@link #bind(Object)}, binding it to another card
+ * discards everything recorded.
+ */
+public final class OperationJournal {
+
+    private final Map<String, Object> completed = new HashMap<>();
+    private final Map<String, ByteArrayOutputStream> partial = new HashMap<>();
+    @Nullable private Object cardKey;
+
+    /**
+     * Bind the journal to a card, the journal is cleared when the card differs from the
+     * previously bound card.
+     *
+     * @param cardKey Key identifying the card.
+     * @return Whether the recorded steps belong to this card.
+     */
+    public synchronized boolean bind(Object cardKey) {
+        if (Objects.equals(this.cardKey, cardKey)) {
+            return true;
+        }
+        clear();
+        this.cardKey = cardKey;
+        return false;
+    }
+
+    /**
+     * Run the step unless it has already been completed.
+     *
+     * @param name Name of the step, unique within the operation.
+     * @param step Step to run.
+     * @return Result of the step, recorded result when the step was already completed.
+     * @throws SmartCardReaderException When the step fails, the step is not recorded.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T step(String name, Step<T> step) throws SmartCardReaderException {
+        synchronized (this) {
+            if (completed.containsKey(name)) {
+                return (T) completed.get(name);
+            }
+        }
+        T result = step.run();
+        synchronized (this) {
+            completed.put(name, result);
+            partial.remove(name);
+        }
+        return result;
+    }
+
+    /**
+     * Buffer of a file read that may be interrupted. The read continues from its size and
+     * appends only complete responses.
+     *
+     * @param name Name of the step reading the file.
+     * @return Bytes read so far.
+     */
+    public synchronized ByteArrayOutputStream partial(String name) {
+        ByteArrayOutputStream stream = partial.get(name);
+        if (stream == null) {
+            stream = new ByteArrayOutputStream();
+            partial.put(name, stream);
+        }
+        return stream;
+    }
+
+    public synchronized boolean isCompleted(String name) {
+        return completed.containsKey(name);
+    }
+
+    /**
+     * @return Number of completed steps.
+     */
+    public synchronized int completedSteps() {
+        return completed.size();
+    }
+
+    /**
+     * Discard all recorded steps and partial reads.
+     */
+    public synchronized void clear() {
+        completed.clear();
+        partial.clear();
+    }
+
+    /**
+     * Single step of an operation.
+     *
+     * @param <T> Result type.
+     */
+    public interface Step<T> {
+        T run() throws SmartCardReaderException;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2017 - 2025 Riigi Infosüsteemi Amet
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package ee.ria.DigiDoc.smartcardreader;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Response APDU as a view into a receive buffer.
+ * <p>
+ * Data and status words are read directly from the buffer without copying. The
+ * buffer is usually owned by the reader, so the view is valid until the next
+ * transmission on the same reader; use {@link #toDataArray()} to keep the data.
+ */
+public final class ResponseApdu {
+
+    private byte[] array;
+    private int offset;
+    private int length;
+
+    /**
+     * Wrap response bytes without copying.
+     *
+     * @param response Complete response including SW1 and SW2.
+     * @return Response APDU.
+     * @throws SmartCardReaderException When the response does not contain status words.
+     */
+    public static ResponseApdu of(byte[] response) throws SmartCardReaderException {
+        return new ResponseApdu().set(response, 0, response.length);
+    }
+
+    /**
+     * Point this view to a response in a buffer.
+     *
+     * @param array Buffer containing the response.
+     * @param offset Offset of the response in the buffer.
+     * @param length Length of the response including SW1 and SW2.
+     * @return This response.
+     * @throws SmartCardReaderException When the response does not contain status words.
+     */
+    public ResponseApdu set(byte[] array, int offset, int length) throws SmartCardReaderException {
+        if (length < 2) {
+            throw new SmartCardReaderException("Response APDU is missing status words");
+        }
+        this.array = array;
+        this.offset = offset;
+        this.length = length;
+        return this;
+    }
+
+    public byte sw1() {
+        return array[offset + length - 2];
+    }
+
+    public byte sw2() {
+        return array[offset + length - 1];
+    }
+
+    /**
+     * @return SW1 and SW2 as a single unsigned value, e.g. 0x9000.
+     */
+    public int sw() {
+        return ((sw1() & 0xFF) << 8) | (sw2() & 0xFF);
+    }
+
+    public boolean isSuccess() {
+        return sw() == 0x9000;
+    }
+
+    /**
+     * @return True when the end of file was reached before reading the expected
+     * number of bytes (0x6282), the data is valid.
+     */
+    public boolean isEndOfFile() {
+        return sw() == 0x6282;
+    }
+
+    /**
+     * @return Number of data bytes, without status words.
+     */
+    public int dataLength() {
+        return length - 2;
+    }
+
+    /**
+     * @return Zero-copy view of the response data, without status words.
+     */
+    public ByteBuffer data() {
+        return ByteBuffer.wrap(array, offset, dataLength()).slice();
+    }
+
+    /**
+     * Backing array, the response occupies bytes
+     * {@code [arrayOffset(), arrayOffset() + length())}.
+     *
+     * @return Backing array.
+     */
+    public byte[] array() {
+        return array;
+    }
+
+    public int arrayOffset() {
+        return offset;
+    }
+
+    /**
+     * @return Length of the response including status words.
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @return Copy of the response data, without status words.
+     */
+    public byte[] toDataArray() {
+        return Arrays.copyOfRange(array, offset, offset + dataLength());
+    }
+
+    /**
+     * @return Copy of the complete response including status words.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOfRange(array, offset, offset + length);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format("ResponseApdu{length=%d, sw=%04X}", dataLength(), sw());
+    }
+}
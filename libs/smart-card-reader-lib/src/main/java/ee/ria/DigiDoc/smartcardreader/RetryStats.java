@@ -0,0 +1,68 @@
+/*
+ * Copyright 2017 - 2025 Riigi Infosüsteemi Amet
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package ee.ria.DigiDoc.smartcardreader;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * Snapshot of APDU retransmissions, see {@link SmartCardReader#retryStats()}.
+ */
+public final class RetryStats {
+
+    private final long retries;
+    private final long recovered;
+    private final long exhausted;
+
+    RetryStats(long retries, long recovered, long exhausted) {
+        this.retries = retries;
+        this.recovered = recovered;
+        this.exhausted = exhausted;
+    }
+
+    /**
+     * @return Number of retransmitted APDUs.
+     */
+    public long retries() {
+        return retries;
+    }
+
+    /**
+     * @return Number of APDUs that succeeded after retransmission.
+     */
+    public long recovered() {
+        return recovered;
+    }
+
+    /**
+     * @return Number of APDUs that failed after all retransmissions.
+     */
+    public long exhausted() {
+        return exhausted;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "RetryStats{retries=%d, recovered=%d, exhausted=%d}",
+                retries, recovered, exhausted);
+    }
+}
@@ -19,14 +19,71 @@
 
 package ee.ria.DigiDoc.smartcardreader;
 
-import static com.google.common.primitives.Bytes.concat;
-import static java.util.Arrays.copyOf;
-import static java.util.Arrays.copyOfRange;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 import ee.ria.DigiDoc.utilsLib.logging.LoggingUtil;
 
 public abstract class SmartCardReader implements AutoCloseable {
     private static final String TAG = SmartCardReader.class.getName();
+
+    /**
+     * Maximum command data length of a short APDU.
+     */
+    private static final int SHORT_MAX_LC = 255;
+
+    /**
+     * Maximum expected response length of a short APDU.
+     */
+    private static final int SHORT_MAX_LE = 256;
+
+    /**
+     * Maximum command data length of an extended length APDU.
+     */
+    private static final int EXTENDED_MAX_LC = 65535;
+
+    /**
+     * Default maximum number of GET RESPONSE commands for a single command.
+     */
+    private static final int DEFAULT_RESPONSE_CHAIN_LIMIT = 128;
+
+    /**
+     * Default retransmissions of an idempotent APDU on transient transport errors.
+     */
+    private static final int DEFAULT_MAX_RETRIES = 2;
+    private static final long DEFAULT_RETRY_BACKOFF_MILLIS = 25;
+    private static final long MAX_RETRY_BACKOFF_MILLIS = 200;
+
+    private boolean extendedLengthEnabled = false;
+    private int responseChainLimit = DEFAULT_RESPONSE_CHAIN_LIMIT;
+
+    private static final ApduInterceptor[] NO_INTERCEPTORS = new ApduInterceptor[0];
+
+    private final Object interceptorLock = new Object();
+    private volatile ApduInterceptor[] interceptors = NO_INTERCEPTORS;
+    private volatile ApduInterceptor[] transportInterceptors = NO_INTERCEPTORS;
+
+    private final ReentrantLock transactionLock = new ReentrantLock(true);
+    private final Object statsLock = new Object();
+    private long lockAcquisitions;
+    private long lockContended;
+    private long lockWaitNanos;
+    private long lockMaxWaitNanos;
+
+    private int maxRetries = DEFAULT_MAX_RETRIES;
+    private long retryBackoffMillis = DEFAULT_RETRY_BACKOFF_MILLIS;
+    private long retries;
+    private long recoveredRetries;
+    private long exhaustedRetries;
+
+    private final ApduBufferPool bufferPool = new ApduBufferPool();
+    private final CommandApdu command = new CommandApdu(bufferPool);
+    private final ResponseApdu response = new ResponseApdu();
+
     public abstract boolean connected();
 
     public abstract byte[] atr();
@@ -40,67 +97,559 @@ public abstract class SmartCardReader implements AutoCloseable {
      */
     protected abstract byte[] transmit(byte[] apdu) throws SmartCardReaderException;
 
+    /**
+     * Whether the transport is able to carry extended length APDUs.
+     * <p>
+     * Readers override this when the underlying interface reports the capability.
+     *
+     * @return True when extended length APDUs can be transmitted.
+     */
+    protected boolean supportsExtendedLength() {
+        return false;
+    }
+
+    /**
+     * Enable or disable extended length APDU encoding (3-byte Lc, 2/3-byte Le).
+     * <p>
+     * Has effect only when the reader {@link #supportsExtendedLength() supports} it,
+     * the card must support extended length APDUs as well.
+     *
+     * @param enabled Whether to use extended length APDUs when needed.
+     */
+    public void setExtendedLengthEnabled(boolean enabled) {
+        extendedLengthEnabled = enabled;
+    }
+
+    /**
+     * Check if extended length APDUs are used for large commands and responses.
+     *
+     * @return True when extended length is enabled and supported by the reader.
+     */
+    public boolean isExtendedLengthEnabled() {
+        return extendedLengthEnabled && supportsExtendedLength();
+    }
+
+    /**
+     * Makes the actual transaction with reusable APDU buffers.
+     * <p>
+     * Readers override this to hand the encoded command directly to the transport and
+     * to point the response view to their own receive buffer. The default implementation
+     * delegates to {@link #transmit(byte[])}.
+     *
+     * @param command Encoded command APDU.
+     * @param response Response view to fill.
+     * @return Response, valid until the next transaction with this reader.
+     * @throws SmartCardReaderException When something fails.
+     */
+    protected ResponseApdu transceive(CommandApdu command, ResponseApdu response)
+            throws SmartCardReaderException {
+        byte[] bytes = transmit(command.toByteArray());
+        return response.set(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Begin an exclusive transaction with the reader, modelled on PC/SC
+     * SCardBeginTransaction.
+     * <p>
+     * Other threads, including status polling, wait until the transaction is ended.
+     * Transactions are reentrant and waiting threads are served in arrival order.
+     * Use with try-with-resources:
+     * <pre>
+     * try (SmartCardReader.Transaction transaction = reader.beginTransaction()) {
+     *     reader.transmit(...);
+     *     reader.transmit(...);
+     * }
+     * </pre>
+     *
+     * @return Transaction that ends when closed.
+     */
+    public Transaction beginTransaction() {
+        lock();
+        return new Transaction();
+    }
+
+    /**
+     * End transaction started with {@link #beginTransaction()} by the current thread.
+     *
+     * @throws IllegalMonitorStateException When the current thread has no transaction.
+     */
+    public void endTransaction() {
+        transactionLock.unlock();
+    }
+
+    /**
+     * @return Lock wait time statistics of this reader.
+     */
+    public TransactionStats transactionStats() {
+        synchronized (statsLock) {
+            return new TransactionStats(lockAcquisitions, lockContended, lockWaitNanos, lockMaxWaitNanos);
+        }
+    }
+
+    private void lock() {
+        if (transactionLock.isHeldByCurrentThread()) {
+            transactionLock.lock();
+            return;
+        }
+        try {
+            // Timed tryLock respects fairness, unlike tryLock()
+            if (transactionLock.tryLock(0, TimeUnit.NANOSECONDS)) {
+                recordLock(0);
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long start = System.nanoTime();
+        transactionLock.lock();
+        recordLock(System.nanoTime() - start);
+    }
+
+    private void recordLock(long waitNanos) {
+        synchronized (statsLock) {
+            lockAcquisitions++;
+            if (waitNanos > 0) {
+                lockContended++;
+                lockWaitNanos += waitNanos;
+                lockMaxWaitNanos = Math.max(lockMaxWaitNanos, waitNanos);
+            }
+        }
+    }
+
+    /**
+     * Pool of buffers used for encoding commands and receiving responses.
+     *
+     * @return Buffer pool of this reader.
+     */
+    protected ApduBufferPool bufferPool() {
+        return bufferPool;
+    }
+
     /**
      * Transmit APDU to the smart card reader.
      * <p>
      * Automatically handles message chaining for large data transmissions and
      * reading additional data for large responses.
+     * <p>
+     * When extended length is enabled, data up to 65535 bytes is sent in a single
+     * APDU and Le of 0 or above 256 requests up to 65536 bytes of response.
      *
      * @return Return bytes.
+     * @throws ApduResponseException When the card responds with an error status word.
      * @throws SmartCardReaderException When something fails.
      */
     public byte[] transmit(int cla, int ins, int p1, int p2, byte[] data, Integer le)
             throws SmartCardReaderException {
+        lock();
+        try {
+            ResponseApdu response = transmitRaw(cla, ins, p1, p2, data, le);
+            if (response.isSuccess() || response.isEndOfFile()) {
+                return response.toDataArray();
+            }
+            throw new ApduResponseException(response.sw1(), response.sw2());
+        } finally {
+            transactionLock.unlock();
+        }
+    }
+
+    /**
+     * Transmit APDU to the smart card reader without throwing on error status words.
+     * <p>
+     * Handles message chaining and reading additional data (0x61XX) like
+     * {@link #transmit(int, int, int, int, byte[], Integer)}, and resends the command
+     * with the corrected Le when the card reports wrong length (0x6CXX). End of file
+     * (0x6282) is returned with the data that was read.
+     *
+     * @return Response data and status words as a view into the receive buffer of this
+     * reader, valid until the next transmit. Hold a {@link #beginTransaction() transaction}
+     * from the transmit until the response has been copied when the reader is shared
+     * between threads.
+     * @throws SmartCardReaderException When transmission fails.
+     */
+    public ResponseApdu transmitRaw(int cla, int ins, int p1, int p2, byte[] data, Integer le)
+            throws SmartCardReaderException {
         LoggingUtil.Companion.debugLog(TAG, String.format("transmit: 0x%02X 0x%02X 0x%02X 0x%02X", cla, ins, p1, p2), null);
 
-        byte[] response;
-        if (data == null || data.length == 0) {
-            response = transmit(SmartCardReader.appendLe(
-                    new byte[] {(byte) cla, (byte) ins, (byte) p1, (byte) p2},
-                    le));
-        } else if (data.length < 256) {
-            response = transmit(SmartCardReader.appendLe(
-                    concat(
-                            new byte[] {(byte) cla, (byte) ins, (byte) p1, (byte) p2,
-                                    (byte) data.length},
-                            data),
-                    le));
-        } else {
-            int remaining = data.length;
-            while (remaining >= 256) {
-                transmit(SmartCardReader.appendLe(
-                        concat(
-                                new byte[] {0x10, (byte) ins, (byte) p1, (byte) p2, (byte) 0xFF},
-                                copyOfRange(data, data.length - remaining,
-                                        data.length - remaining + 255)),
-                        le));
-                remaining -= 255;
+        lock();
+        try {
+            ApduInterceptor[] chain = interceptors;
+            if (chain.length == 0) {
+                return exchange(cla, ins, p1, p2, data, le);
+            }
+            CommandApdu command = CommandApdu.of(cla, ins, p1, p2, data, le);
+            return new Chain(chain, 0, command, null).proceed(command);
+        } finally {
+            transactionLock.unlock();
+        }
+    }
+
+    /**
+     * Exchange a command with the card after the interceptors, readers override this
+     * to change the way commands and responses are processed.
+     *
+     * @return Response data and status words, valid until the next transaction with
+     * this reader.
+     * @throws SmartCardReaderException When transmission fails.
+     */
+    protected ResponseApdu exchange(int cla, int ins, int p1, int p2, byte[] data, Integer le)
+            throws SmartCardReaderException {
+        ResponseApdu response = transmitCommand(cla, ins, p1, p2, data, le);
+        if (response.sw1() == 0x6C) {
+            response = transmitCommand(cla, ins, p1, p2, data, getResponseLength(response.sw2()));
+        }
+        if (response.sw1() == 0x61) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(
+                    response.dataLength() + getResponseLength(response.sw2()) + 2);
+            out.write(response.array(), response.arrayOffset(), response.dataLength());
+            response = getResponse(response, out);
+            out.write(response.sw1());
+            out.write(response.sw2());
+            return ResponseApdu.of(out.toByteArray());
+        }
+        return response;
+    }
+
+    /**
+     * Send a single encoded APDU through the transport interceptors to
+     * {@link #transceive(CommandApdu, ResponseApdu)}.
+     *
+     * @param command Encoded command APDU.
+     * @param response Response view to fill.
+     * @return Response, valid until the next transaction with this reader.
+     * @throws SmartCardReaderException When something fails.
+     */
+    protected final ResponseApdu send(CommandApdu command, ResponseApdu response)
+            throws SmartCardReaderException {
+        int attempt = 0;
+        while (true) {
+            try {
+                ResponseApdu result = sendOnce(command, response);
+                if (attempt > 0) {
+                    recordRetry(0, 1, 0);
+                }
+                return result;
+            } catch (SmartCardReaderException e) {
+                if (attempt >= maxRetries || !isIdempotent(command) || !isTransient(e)) {
+                    if (attempt > 0) {
+                        recordRetry(0, 0, 1);
+                    }
+                    throw e;
+                }
+                attempt++;
+                LoggingUtil.Companion.debugLog(TAG, String.format(
+                        "Retransmitting 0x%02X, attempt %d: %s", command.ins(), attempt, e.getMessage()), null);
+                recordRetry(1, 0, 0);
+                backoff(attempt, e);
+            }
+        }
+    }
+
+    private ResponseApdu sendOnce(CommandApdu command, ResponseApdu response)
+            throws SmartCardReaderException {
+        ApduInterceptor[] chain = transportInterceptors;
+        if (chain.length == 0) {
+            return transceive(command, response);
+        }
+        return new Chain(chain, 0, command, response).proceed(command);
+    }
+
+    /**
+     * Set retransmission of idempotent commands on transient transport errors.
+     *
+     * @param maxRetries Maximum retransmissions of a single APDU, 0 disables retrying.
+     * @param backoffMillis Delay before the first retransmission, doubled for every
+     *                      following one.
+     */
+    public void setRetryPolicy(int maxRetries, long backoffMillis) {
+        this.maxRetries = maxRetries;
+        this.retryBackoffMillis = backoffMillis;
+    }
+
+    /**
+     * @return Retransmission statistics of this reader.
+     */
+    public RetryStats retryStats() {
+        synchronized (statsLock) {
+            return new RetryStats(retries, recoveredRetries, exhaustedRetries);
+        }
+    }
+
+    /**
+     * Whether the transport failure may succeed when the APDU is sent again, readers
+     * override this to exclude errors such as a lost connection.
+     *
+     * @param e Transport failure.
+     * @return True when the APDU may be retransmitted.
+     */
+    protected boolean isTransient(SmartCardReaderException e) {
+        return !(e instanceof ApduResponseException);
+    }
+
+    /**
+     * Whether sending the APDU again has no side effects: plain SELECT, READ BINARY,
+     * GET DATA and GET RESPONSE. Secure messaging APDUs are never idempotent, the card
+     * increments the send sequence counter on receipt. Chained parts are excluded as
+     * well.
+     */
+    static boolean isIdempotent(CommandApdu command) {
+        if ((command.cla() & 0x1C) != 0) {
+            return false;
+        }
+        switch (command.ins()) {
+            case 0xA4:
+            case 0xB0:
+            case 0xB1:
+            case 0xCA:
+            case 0xCB:
+            case 0xC0:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void backoff(int attempt, SmartCardReaderException e) throws SmartCardReaderException {
+        long delay = Math.min(retryBackoffMillis << (attempt - 1), MAX_RETRY_BACKOFF_MILLIS);
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+    }
+
+    private void recordRetry(int retry, int recovered, int exhausted) {
+        synchronized (statsLock) {
+            retries += retry;
+            recoveredRetries += recovered;
+            exhaustedRetries += exhausted;
+        }
+    }
+
+    /**
+     * Add interceptor for commands passed to
+     * {@link #transmitRaw(int, int, int, int, byte[], Integer)}. Interceptors are
+     * called in the order they were added.
+     *
+     * @param interceptor Interceptor to add.
+     */
+    public void addInterceptor(ApduInterceptor interceptor) {
+        synchronized (interceptorLock) {
+            interceptors = append(interceptors, interceptor);
+        }
+    }
+
+    /**
+     * Add interceptor for APDUs sent to the card, after chaining and secure messaging.
+     * Interceptors are called in the order they were added.
+     *
+     * @param interceptor Interceptor to add.
+     */
+    public void addTransportInterceptor(ApduInterceptor interceptor) {
+        synchronized (interceptorLock) {
+            transportInterceptors = append(transportInterceptors, interceptor);
+        }
+    }
+
+    /**
+     * Remove interceptor added with {@link #addInterceptor(ApduInterceptor)} or
+     * {@link #addTransportInterceptor(ApduInterceptor)}.
+     *
+     * @param interceptor Interceptor to remove.
+     */
+    public void removeInterceptor(ApduInterceptor interceptor) {
+        synchronized (interceptorLock) {
+            interceptors = remove(interceptors, interceptor);
+            transportInterceptors = remove(transportInterceptors, interceptor);
+        }
+    }
+
+    private static ApduInterceptor[] append(ApduInterceptor[] interceptors, ApduInterceptor interceptor) {
+        ApduInterceptor[] result = Arrays.copyOf(interceptors, interceptors.length + 1);
+        result[interceptors.length] = interceptor;
+        return result;
+    }
+
+    private static ApduInterceptor[] remove(ApduInterceptor[] interceptors, ApduInterceptor interceptor) {
+        List<ApduInterceptor> result = new ArrayList<>(Arrays.asList(interceptors));
+        result.remove(interceptor);
+        return result.toArray(NO_INTERCEPTORS);
+    }
+
+    /**
+     * Execute a batch of commands in order while holding the reader.
+     * <p>
+     * Execution stops at the first command that ends with an unexpected status word,
+     * the result contains the responses of all commands that were sent.
+     *
+     * @param batch Commands to send.
+     * @return Responses of the sent commands.
+     * @throws SmartCardReaderException When transmission fails.
+     */
+    public ApduBatchResult transmitBatch(ApduBatch batch) throws SmartCardReaderException {
+        LoggingUtil.Companion.debugLog(TAG, "transmitBatch: " + batch.size() + " commands", null);
+        try (Transaction ignored = beginTransaction()) {
+            return executeBatch(batch);
+        }
+    }
+
+    /**
+     * Executes batch commands one by one, readers may override this to apply
+     * transport specific optimizations.
+     *
+     * @param batch Commands to send.
+     * @return Responses of the sent commands.
+     * @throws SmartCardReaderException When transmission fails.
+     */
+    protected ApduBatchResult executeBatch(ApduBatch batch) throws SmartCardReaderException {
+        ApduBatchResult result = new ApduBatchResult(batch);
+        for (ApduBatch.Command command : batch.commands()) {
+            ResponseApdu response = transmitRaw(command.cla, command.ins, command.p1, command.p2,
+                    command.data, command.le);
+            if (!result.add(response.toDataArray(), response.sw())) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Set the maximum number of GET RESPONSE commands issued for a single command.
+     *
+     * @param limit Maximum length of a 0x61XX response chain.
+     */
+    public void setResponseChainLimit(int limit) {
+        responseChainLimit = limit;
+    }
+
+    public int getResponseChainLimit() {
+        return responseChainLimit;
+    }
+
+    /**
+     * Read the remaining response data with unencrypted GET RESPONSE commands while
+     * the card reports more data available (0x61XX).
+     * <p>
+     * Data of every chunk is appended to {@code out}, which the caller may pre-size
+     * from SW2 of the first response.
+     *
+     * @param response Response that ended with 0x61XX, its data is not written.
+     * @param out Buffer receiving the data of the GET RESPONSE chunks.
+     * @return Response to the last GET RESPONSE, valid until the next transaction.
+     * @throws SmartCardReaderException When the chain exceeds the limit or transmission fails.
+     */
+    protected ResponseApdu getResponse(ResponseApdu response, ByteArrayOutputStream out)
+            throws SmartCardReaderException {
+        int count = 0;
+        while (response.sw1() == 0x61) {
+            if (++count > responseChainLimit) {
+                throw new SmartCardReaderException(
+                        "GET RESPONSE chain exceeds limit of " + responseChainLimit);
+            }
+            response = transmitCommand(0x00, 0xC0, 0x00, 0x00, null,
+                    getResponseLength(response.sw2()));
+            out.write(response.array(), response.arrayOffset(), response.dataLength());
+        }
+        return response;
+    }
+
+    /**
+     * Encode and send the command, chaining short APDUs when the data does not fit.
+     *
+     * @return Response to the last command in the chain.
+     */
+    private ResponseApdu transmitCommand(int cla, int ins, int p1, int p2, byte[] data, Integer le)
+            throws SmartCardReaderException {
+        int length = data == null ? 0 : data.length;
+        if (useExtendedLength(data, le)) {
+            return send(command.encode(cla, ins, p1, p2, data, 0, length, le, true), response);
+        }
+        int offset = 0;
+        while (length - offset > SHORT_MAX_LC) {
+            send(command.encode(0x10, ins, p1, p2, data, offset, SHORT_MAX_LC, le, false),
+                    response);
+            offset += SHORT_MAX_LC;
+        }
+        return send(command.encode(cla, ins, p1, p2, data, offset, length - offset, le, false),
+                response);
+    }
+
+    /**
+     * Number of bytes available according to SW2 of a 0x61XX or 0x6CXX response.
+     *
+     * @param sw2 SW2 of the response.
+     * @return Le for the GET RESPONSE command or the resent command.
+     */
+    protected static int getResponseLength(byte sw2) {
+        return sw2 == 0x00 ? SHORT_MAX_LE : sw2 & 0xFF;
+    }
+
+    private boolean useExtendedLength(byte[] data, Integer le) {
+        if (!isExtendedLengthEnabled()) {
+            return false;
+        }
+        int length = data == null ? 0 : data.length;
+        if (length > EXTENDED_MAX_LC) {
+            return false;
+        }
+        return length > SHORT_MAX_LC || (le != null && (le == 0 || le > SHORT_MAX_LE));
+    }
+
+    /**
+     * Position in the logical (response is null) or transport interceptor chain.
+     */
+    private final class Chain implements ApduInterceptor.Chain {
+        private final ApduInterceptor[] interceptors;
+        private final int index;
+        private final CommandApdu command;
+        private final ResponseApdu response;
+
+        Chain(ApduInterceptor[] interceptors, int index, CommandApdu command, ResponseApdu response) {
+            this.interceptors = interceptors;
+            this.index = index;
+            this.command = command;
+            this.response = response;
+        }
+
+        @Override
+        public SmartCardReader reader() {
+            return SmartCardReader.this;
+        }
+
+        @Override
+        public CommandApdu command() {
+            return command;
+        }
+
+        @Override
+        public ResponseApdu proceed(CommandApdu command) throws SmartCardReaderException {
+            if (index < interceptors.length) {
+                return interceptors[index].intercept(
+                        new Chain(interceptors, index + 1, command, response));
+            }
+            if (response != null) {
+                return transceive(command, response);
+            }
+            return exchange(command.cla(), command.ins(), command.p1(), command.p2(),
+                    command.data(), command.le());
+        }
+    }
+
+    /**
+     * Exclusive transaction with the reader, ends when closed.
+     */
+    public final class Transaction implements AutoCloseable {
+        private boolean closed;
+
+        private Transaction() {
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                endTransaction();
             }
-            response = transmit(SmartCardReader.appendLe(
-                    concat(
-                            new byte[] {(byte) cla, (byte) ins, (byte) p1, (byte) p2,
-                                    (byte) remaining},
-                            copyOfRange(data, data.length - remaining, data.length)),
-                    le));
-        }
-
-        byte sw1 = response[response.length - 2];
-        byte sw2 = response[response.length - 1];
-        if (sw1 == (byte) 0x90 && sw2 == 0x00) {
-            return copyOf(response, response.length - 2);
-        } else if (sw1 == 0x61) {
-            return concat(
-                    copyOf(response, response.length - 2),
-                    transmit(0x00, 0xC0, 0x00, 0x00, null, (int) sw2));
-        }
-        throw new ApduResponseException(sw1, sw2);
-    }
-
-    protected static byte[] appendLe(byte[] apdu, Integer le) {
-        if (le == null) {
-            return apdu;
-        } else {
-            return concat(apdu, new byte[] {le.byteValue()});
         }
     }
 }
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017 - 2025 Riigi Infosüsteemi Amet
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package ee.ria.DigiDoc.smartcardreader;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * Snapshot of reader lock contention, see {@link SmartCardReader#transactionStats()}.
+ */
+public final class TransactionStats {
+
+    private final long acquisitions;
+    private final long contended;
+    private final long totalWaitNanos;
+    private final long maxWaitNanos;
+
+    TransactionStats(long acquisitions, long contended, long totalWaitNanos, long maxWaitNanos) {
+        this.acquisitions = acquisitions;
+        this.contended = contended;
+        this.totalWaitNanos = totalWaitNanos;
+        this.maxWaitNanos = maxWaitNanos;
+    }
+
+    /**
+     * @return Number of times the reader lock was acquired, not counting reentrant acquisitions.
+     */
+    public long acquisitions() {
+        return acquisitions;
+    }
+
+    /**
+     * @return Number of acquisitions that had to wait for another thread.
+     */
+    public long contended() {
+        return contended;
+    }
+
+    public long totalWaitNanos() {
+        return totalWaitNanos;
+    }
+
+    public long maxWaitNanos() {
+        return maxWaitNanos;
+    }
+
+    /**
+     * @return Average wait time of contended acquisitions.
+     */
+    public long averageWaitNanos() {
+        return contended == 0 ? 0 : totalWaitNanos / contended;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+                "TransactionStats{acquisitions=%d, contended=%d, averageWait=%dus, maxWait=%dus}",
+                acquisitions, contended, averageWaitNanos() / 1000, maxWaitNanos / 1000);
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2017 - 2025 Riigi Infosüsteemi Amet
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package ee.ria.DigiDoc.smartcardreader.nfc;
+
+import ee.ria.DigiDoc.smartcardreader.SmartCardReaderException;
+
+/**
+ * Card work done for every card in continuous discovery mode.
+ *
+ * @param <T> Result type.
+ */
+public interface NfcCardProcessor<T> {
+
+    /**
+     * Process the card, called on a worker thread. The reader is closed afterwards.
+     *
+     * @param reader Connected reader of the discovered card.
+     * @return Result reported for the card.
+     * @throws SmartCardReaderException When processing fails.
+     */
+    T process(NfcSmartCardReader reader) throws SmartCardReaderException;
+}
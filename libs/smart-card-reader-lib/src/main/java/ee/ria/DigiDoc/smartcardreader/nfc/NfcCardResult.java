@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 - 2025 Riigi Infosüsteemi Amet
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package ee.ria.DigiDoc.smartcardreader.nfc;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Locale;
+
+import ee.ria.DigiDoc.smartcardreader.SmartCardReaderException;
+
+/**
+ * Result of processing a single card in continuous discovery mode.
+ *
+ * @param <T> Result type of the {@link NfcCardProcessor}.
+ */
+public final class NfcCardResult<T> {
+
+    private final String tagId;
+    @Nullable private final T result;
+    @Nullable private final SmartCardReaderException error;
+    private final long queueMillis;
+    private final long processMillis;
+
+    NfcCardResult(String tagId, @Nullable T result, @Nullable SmartCardReaderException error,
+                  long queueMillis, long processMillis) {
+        this.tagId = tagId;
+        this.result = result;
+        this.error = error;
+        this.queueMillis = queueMillis;
+        this.processMillis = processMillis;
+    }
+
+    /**
+     * @return Tag identifier as hex string.
+     */
+    public String tagId() {
+        return tagId;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    @Nullable
+    public T result() {
+        return result;
+    }
+
+    @Nullable
+    public SmartCardReaderException error() {
+        return error;
+    }
+
+    /**
+     * @return Time from tag discovery until processing started.
+     */
+    public long queueMillis() {
+        return queueMillis;
+    }
+
+    /**
+     * @return Time spent processing the card.
+     */
+    public long processMillis() {
+        return processMillis;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "NfcCardResult{tagId=%s, success=%b, queue=%dms, process=%dms}",
+                tagId, isSuccess(), queueMillis, processMillis);
+    }
+}
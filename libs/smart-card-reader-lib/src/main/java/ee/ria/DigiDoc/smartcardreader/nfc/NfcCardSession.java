@@ -0,0 +1,116 @@
+/*
+ * Copyright 2017 - 2025 Riigi Infosüsteemi Amet
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package ee.ria.DigiDoc.smartcardreader.nfc;
+
+import android.nfc.Tag;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Card session that keeps the NFC connection, and the secure messaging keys established
+ * over it, alive while the card stays on the device.
+ * <p>
+ * The session is created when the card is discovered, before the CAN is known, and is
+ * kept until it is closed, the card is lost, another card is discovered or the session
+ * is idle for the {@link NfcSmartCardReaderManager#setSessionIdleTimeout idle timeout}. The
+ * application keeps its token in the attachment, so that certificate reading, PIN entry
+ * and signing can be done without repeating PACE.
+ * <p>
+ * Started with {@link NfcSmartCardReaderManager#startSessionDiscovery}.
+ */
+public final class NfcCardSession implements AutoCloseable {
+
+    private final Tag tag;
+    private final NfcSmartCardReader reader;
+    private final String tagId;
+    private final NfcSmartCardReaderManager manager;
+    private volatile boolean closed;
+    @Nullable private volatile Object attachment;
+
+    NfcCardSession(Tag tag, NfcSmartCardReader reader, String tagId, NfcSmartCardReaderManager manager) {
+        this.tag = tag;
+        this.reader = reader;
+        this.tagId = tagId;
+        this.manager = manager;
+    }
+
+    /**
+     * @return Connected reader of the card.
+     */
+    public NfcSmartCardReader reader() {
+        return reader;
+    }
+
+    Tag tag() {
+        return tag;
+    }
+
+    /**
+     * @return Tag identifier as hex string.
+     */
+    public String tagId() {
+        return tagId;
+    }
+
+    /**
+     * @return Whether the session is open and the card is still connected.
+     */
+    public boolean isActive() {
+        return !closed && reader.connected();
+    }
+
+    /**
+     * @return Whether the secure messaging tunnel has been established on this session.
+     */
+    public boolean isSecureMessagingEstablished() {
+        return isActive() && reader.isSecureMessagingEstablished();
+    }
+
+    /**
+     * @return Object attached to the session, for example the token using the reader.
+     */
+    @Nullable
+    public Object attachment() {
+        return attachment;
+    }
+
+    /**
+     * Attach an object to the session, the attachment lives as long as the session.
+     *
+     * @param attachment Object to attach, null to clear.
+     */
+    public void attach(@Nullable Object attachment) {
+        this.attachment = attachment;
+    }
+
+    /**
+     * Close the card connection, the session can not be used afterwards.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        attachment = null;
+        reader.close();
+        manager.sessionClosed(this);
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2017 - 2025 Riigi Infosüsteemi Amet
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package ee.ria.DigiDoc.smartcardreader.nfc;
+
+import android.nfc.NfcAdapter;
+import android.nfc.Tag;
+import android.os.SystemClock;
+
+import org.bouncycastle.util.encoders.Hex;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ee.ria.DigiDoc.smartcardreader.SmartCardReaderException;
+import ee.ria.DigiDoc.utilsLib.logging.LoggingUtil;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+import io.reactivex.rxjava3.subjects.Subject;
+
+/**
+ * Continuous discovery of NFC cards, reader mode stays enabled between cards.
+ * <p>
+ * Discovered tags are queued to a bounded worker pool and processed with the
+ * {@link NfcCardProcessor}. A tag that is being processed or was processed within the
+ * de-duplication window is ignored, so that a card left on the reader or tapped twice
+ * is processed once. Results are reported through {@link #results()}.
+ * <p>
+ * Started with {@link NfcSmartCardReaderManager#startContinuousDiscovery}.
+ */
+public final class NfcContinuousDiscovery<T> implements NfcAdapter.ReaderCallback {
+    private static final String TAG = NfcContinuousDiscovery.class.getName();
+
+    /**
+     * Maximum number of discovered tags waiting for a worker.
+     */
+    private static final int QUEUE_CAPACITY = 8;
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private final NfcSmartCardReaderManager manager;
+    private final NfcCardProcessor<T> processor;
+    private final long deduplicationMillis;
+    private final ThreadPoolExecutor executor;
+    private final Subject<NfcCardResult<T>> results = PublishSubject.<NfcCardResult<T>>create().toSerialized();
+
+    /**
+     * Tag id to the time it finished processing, 0 while it is being processed.
+     */
+    private final Map<String, Long> recentTags = new HashMap<>();
+    private final AtomicInteger processed = new AtomicInteger();
+    /**
+     * Number of cards being processed, the manager reports CARD_DETECTED while it is positive.
+     */
+    private final AtomicInteger active = new AtomicInteger();
+    private final NfcSmartCardReaderManager.NfcStatus status;
+
+    NfcContinuousDiscovery(NfcSmartCardReaderManager manager, NfcSmartCardReaderManager.NfcStatus status,
+                           int workers, long deduplicationMillis, NfcCardProcessor<T> processor) {
+        this.manager = manager;
+        this.status = status;
+        this.processor = processor;
+        this.deduplicationMillis = deduplicationMillis;
+        this.executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+                    Thread thread = new Thread(runnable, "nfc-card-" + THREAD_COUNT.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }) {
+            @Override
+            protected void terminated() {
+                results.onComplete();
+            }
+        };
+        if (status != NfcSmartCardReaderManager.NfcStatus.NFC_ACTIVE) {
+            stop();
+        }
+    }
+
+    /**
+     * @return Status of NFC when discovery was started, results are only reported when
+     * NFC was active.
+     */
+    public NfcSmartCardReaderManager.NfcStatus status() {
+        return status;
+    }
+
+    /**
+     * @return Stream of per-card results, completes when discovery is stopped.
+     */
+    public Observable<NfcCardResult<T>> results() {
+        return results;
+    }
+
+    /**
+     * @return Number of cards processed so far.
+     */
+    public int processedCount() {
+        return processed.get();
+    }
+
+    /**
+     * Called on the NFC binder thread, only queues the tag.
+     *
+     * @param tag Discovered tag.
+     */
+    @Override
+    public void onTagDiscovered(Tag tag) {
+        if (executor.isShutdown()) {
+            return;
+        }
+        String tagId = Hex.toHexString(tag.getId());
+        long discovered = SystemClock.elapsedRealtime();
+        if (!accept(tagId, discovered)) {
+            LoggingUtil.Companion.debugLog(TAG, "Ignoring repeated tag " + tagId, null);
+            return;
+        }
+        try {
+            executor.execute(() -> process(tag, tagId, discovered));
+        } catch (RejectedExecutionException e) {
+            finish(tagId);
+            results.onNext(new NfcCardResult<>(tagId, null,
+                    new SmartCardReaderException("Card processing queue is full", e), 0, 0));
+        }
+    }
+
+    private void process(Tag tag, String tagId, long discovered) {
+        long started = SystemClock.elapsedRealtime();
+        T result = null;
+        SmartCardReaderException error = null;
+        if (active.getAndIncrement() == 0) {
+            manager.cardConnected();
+        }
+        try (NfcSmartCardReader reader = new NfcSmartCardReader(tag, manager.timeoutController())) {
+            result = processor.process(reader);
+        } catch (SmartCardReaderException e) {
+            error = e;
+        } catch (RuntimeException e) {
+            error = new SmartCardReaderException(e);
+        } finally {
+            if (active.decrementAndGet() == 0) {
+                manager.cardReleased(tag);
+            }
+        }
+        long finished = SystemClock.elapsedRealtime();
+        finish(tagId);
+        processed.incrementAndGet();
+        results.onNext(new NfcCardResult<>(tagId, result, error, started - discovered, finished - started));
+    }
+
+    private synchronized boolean accept(String tagId, long now) {
+        Iterator<Map.Entry<String, Long>> iterator = recentTags.entrySet().iterator();
+        while (iterator.hasNext()) {
+            long finished = iterator.next().getValue();
+            if (finished != 0 && now - finished > deduplicationMillis) {
+                iterator.remove();
+            }
+        }
+        if (recentTags.containsKey(tagId)) {
+            return false;
+        }
+        recentTags.put(tagId, 0L);
+        return true;
+    }
+
+    private synchronized void finish(String tagId) {
+        recentTags.put(tagId, SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Stop processing, queued cards are still processed before the results complete.
+     */
+    void stop() {
+        executor.shutdown();
+    }
+}
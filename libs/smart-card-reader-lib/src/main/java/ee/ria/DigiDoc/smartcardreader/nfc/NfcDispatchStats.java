@@ -0,0 +1,125 @@
+/*
+ * Copyright 2017 - 2025 Riigi Infosüsteemi Amet
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package ee.ria.DigiDoc.smartcardreader.nfc;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * Snapshot of tag callback dispatch latency and time to the first APDU, see
+ * {@link NfcSmartCardReaderManager#dispatchStats()}.
+ * <p>
+ * All times start when the platform delivers the tag to the reader callback. Work the
+ * platform does before that, such as the NDEF check that
+ * {@link NfcReaderModeProfile.Builder#skipNdefCheck(boolean) skipping} saves, is not
+ * visible to the application and not included, so these statistics cannot compare
+ * reader mode profiles. Measure the time from tap to result for that.
+ */
+public final class NfcDispatchStats {
+
+    private final long dispatches;
+    private final long timeouts;
+    private final long totalQueueMillis;
+    private final long maxQueueMillis;
+    private final long totalRunMillis;
+    private final long maxRunMillis;
+    private final long firstApdus;
+    private final long totalFirstApduMillis;
+    private final long maxFirstApduMillis;
+
+    NfcDispatchStats(long dispatches, long timeouts, long totalQueueMillis, long maxQueueMillis,
+                     long totalRunMillis, long maxRunMillis,
+                     long firstApdus, long totalFirstApduMillis, long maxFirstApduMillis) {
+        this.dispatches = dispatches;
+        this.timeouts = timeouts;
+        this.totalQueueMillis = totalQueueMillis;
+        this.maxQueueMillis = maxQueueMillis;
+        this.totalRunMillis = totalRunMillis;
+        this.maxRunMillis = maxRunMillis;
+        this.firstApdus = firstApdus;
+        this.totalFirstApduMillis = totalFirstApduMillis;
+        this.maxFirstApduMillis = maxFirstApduMillis;
+    }
+
+    /**
+     * @return Number of completed client callbacks.
+     */
+    public long dispatches() {
+        return dispatches;
+    }
+
+    /**
+     * @return Number of callbacks that exceeded the operation timeout.
+     */
+    public long timeouts() {
+        return timeouts;
+    }
+
+    public long maxQueueMillis() {
+        return maxQueueMillis;
+    }
+
+    public long maxRunMillis() {
+        return maxRunMillis;
+    }
+
+    /**
+     * @return Average time from tag discovery until the callback started.
+     */
+    public long averageQueueMillis() {
+        return dispatches == 0 ? 0 : totalQueueMillis / dispatches;
+    }
+
+    /**
+     * @return Average time the callback held the tag.
+     */
+    public long averageRunMillis() {
+        return dispatches == 0 ? 0 : totalRunMillis / dispatches;
+    }
+
+    /**
+     * @return Number of taps on which an APDU was sent.
+     */
+    public long firstApdus() {
+        return firstApdus;
+    }
+
+    public long maxFirstApduMillis() {
+        return maxFirstApduMillis;
+    }
+
+    /**
+     * @return Average time from the tag callback until the first APDU was sent.
+     */
+    public long averageFirstApduMillis() {
+        return firstApdus == 0 ? 0 : totalFirstApduMillis / firstApdus;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+                "NfcDispatchStats{dispatches=%d, timeouts=%d, averageQueue=%dms, maxQueue=%dms, "
+                        + "averageRun=%dms, maxRun=%dms, averageFirstApdu=%dms, maxFirstApdu=%dms}",
+                dispatches, timeouts, averageQueueMillis(), maxQueueMillis,
+                averageRunMillis(), maxRunMillis, averageFirstApduMillis(), maxFirstApduMillis);
+    }
+}
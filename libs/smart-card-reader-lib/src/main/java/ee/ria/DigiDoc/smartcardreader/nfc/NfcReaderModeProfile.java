@@ -0,0 +1,138 @@
+/*
+ * Copyright 2017 - 2025 Riigi Infosüsteemi Amet
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package ee.ria.DigiDoc.smartcardreader.nfc;
+
+import android.nfc.NfcAdapter;
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Locale;
+
+/**
+ * Reader mode flags and extras used by {@link NfcSmartCardReaderManager} when enabling
+ * reader mode.
+ * <p>
+ * ID-cards carry no NDEF data, so skipping the NDEF check lets the card work start
+ * right after the tag is discovered. The presence check delay sets how often the platform
+ * polls the tag while it is idle between APDUs.
+ */
+public final class NfcReaderModeProfile {
+
+    /**
+     * Platform defaults: NDEF check, platform sounds and default presence check delay.
+     */
+    public static final NfcReaderModeProfile DEFAULT = builder().build();
+
+    /**
+     * Profile for ID-cards: no NDEF check and a relaxed presence check.
+     */
+    public static final NfcReaderModeProfile ID_CARD = builder()
+            .skipNdefCheck(true)
+            .presenceCheckDelay(500)
+            .build();
+
+    private final boolean skipNdefCheck;
+    private final boolean noPlatformSounds;
+    private final int presenceCheckDelayMillis;
+
+    private NfcReaderModeProfile(boolean skipNdefCheck, boolean noPlatformSounds,
+                                 int presenceCheckDelayMillis) {
+        this.skipNdefCheck = skipNdefCheck;
+        this.noPlatformSounds = noPlatformSounds;
+        this.presenceCheckDelayMillis = presenceCheckDelayMillis;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return Reader mode flags for {@link NfcAdapter#enableReaderMode}.
+     */
+    public int flags() {
+        int flags = NfcAdapter.FLAG_READER_NFC_A;
+        if (skipNdefCheck) {
+            flags |= NfcAdapter.FLAG_READER_SKIP_NDEF_CHECK;
+        }
+        if (noPlatformSounds) {
+            flags |= NfcAdapter.FLAG_READER_NO_PLATFORM_SOUNDS;
+        }
+        return flags;
+    }
+
+    /**
+     * @return Reader mode extras for {@link NfcAdapter#enableReaderMode}, null when the
+     * platform defaults are used.
+     */
+    @Nullable
+    public Bundle extras() {
+        if (presenceCheckDelayMillis <= 0) {
+            return null;
+        }
+        Bundle extras = new Bundle();
+        extras.putInt(NfcAdapter.EXTRA_READER_PRESENCE_CHECK_DELAY, presenceCheckDelayMillis);
+        return extras;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+                "NfcReaderModeProfile{skipNdefCheck=%b, noPlatformSounds=%b, presenceCheckDelay=%dms}",
+                skipNdefCheck, noPlatformSounds, presenceCheckDelayMillis);
+    }
+
+    public static final class Builder {
+
+        private boolean skipNdefCheck;
+        private boolean noPlatformSounds;
+        private int presenceCheckDelayMillis;
+
+        private Builder() {
+        }
+
+        public Builder skipNdefCheck(boolean skipNdefCheck) {
+            this.skipNdefCheck = skipNdefCheck;
+            return this;
+        }
+
+        public Builder noPlatformSounds(boolean noPlatformSounds) {
+            this.noPlatformSounds = noPlatformSounds;
+            return this;
+        }
+
+        /**
+         * @param presenceCheckDelayMillis Delay between presence checks, 0 for platform default.
+         */
+        public Builder presenceCheckDelay(int presenceCheckDelayMillis) {
+            if (presenceCheckDelayMillis < 0) {
+                throw new IllegalArgumentException("Presence check delay must not be negative");
+            }
+            this.presenceCheckDelayMillis = presenceCheckDelayMillis;
+            return this;
+        }
+
+        public NfcReaderModeProfile build() {
+            return new NfcReaderModeProfile(skipNdefCheck, noPlatformSounds, presenceCheckDelayMillis);
+        }
+    }
+}
@@ -22,17 +22,23 @@ package ee.ria.DigiDoc.smartcardreader.nfc;
 import static java.util.Arrays.copyOfRange;
 
 import android.nfc.Tag;
+import android.nfc.TagLostException;
 import android.nfc.tech.IsoDep;
+import android.os.SystemClock;
 
-import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import org.bouncycastle.util.encoders.Hex;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
+import java.util.Arrays;
 import java.util.Objects;
+import java.util.function.LongConsumer;
 
-import ee.ria.DigiDoc.smartcardreader.ApduResponseException;
+import ee.ria.DigiDoc.smartcardreader.CommandApdu;
+import ee.ria.DigiDoc.smartcardreader.ResponseApdu;
 import ee.ria.DigiDoc.smartcardreader.SmartCardReader;
 import ee.ria.DigiDoc.smartcardreader.SmartCardReaderException;
 import ee.ria.DigiDoc.utilsLib.logging.LoggingUtil;
@@ -47,30 +53,75 @@ public class NfcSmartCardReader extends SmartCardReader {
      */
     private final IsoDep card;
 
+    /**
+     * Metadata of the tag, read before connecting
+     */
+    private final NfcTagInfo tagInfo;
+
     /**
      * Handle to the APDU encryption/decryption oracle, only present if
      * tunnel has been established
      */
     private ApduEncryptor apduEncryptor = null;
 
+    /**
+     * Chooses the timeout of each transceive call
+     */
+    private final NfcTimeoutController timeoutController;
+
+    /**
+     * Timeout currently set on the card, IsoDep.setTimeout is a binder call
+     */
+    private int timeout;
+
+    /**
+     * Notified with the elapsed realtime of the first APDU, used for discovery latency
+     */
+    @Nullable
+    private LongConsumer firstApduListener;
+
+    /**
+     * Notified once when the tag is found to be lost
+     */
+    @Nullable
+    private volatile Runnable tagLostListener;
+
+    /**
+     * Elapsed realtime of the last APDU sent, or of connecting
+     */
+    private volatile long lastActivity = SystemClock.elapsedRealtime();
+
     /**
      * Create NfcSmartCardReader from the detected tag
      *
      * @param tag
      */
     public NfcSmartCardReader(Tag tag) throws SmartCardReaderException {
+        this(tag, new NfcTimeoutController());
+    }
+
+    /**
+     * Create NfcSmartCardReader from the detected tag
+     *
+     * @param tag
+     * @param timeoutController chooses the timeout of each command
+     */
+    public NfcSmartCardReader(Tag tag, NfcTimeoutController timeoutController)
+            throws SmartCardReaderException {
         card = IsoDep.get(tag); // recognized tag to create the tunnel with
+        if (card == null) {
+            throw new SmartCardReaderException("Tag does not support ISO-DEP");
+        }
+        tagInfo = NfcTagInfo.of(tag, card);
+        this.timeoutController = timeoutController;
 
-        // maximum amount of time to process the data, 50000 == 50 seconds
-        // this applies to trancieve calls and since we do cryptography, we
-        // allow it to be long. Under normal circumstances we could survive
-        // with the 5 second timeout, but when there has been wrong CAN entry
-        // 10 times in a row, the card protection mechanisms introduce a delay.
-        // Since length of the delay is only validated empirically to be around
-        // 30 seconds, we have established 50 seconds as resonable upper
-        // boundary. It is long enough to cover the delay and it does not
-        // disturb any positive cases.
-        card.setTimeout(50000);
+        // Most commands complete well within the 5 second short timeout, so a removed
+        // card is detected quickly. Cryptographic commands and PACE after wrong CAN
+        // entries get the long 50 second timeout: when there has been wrong CAN entry
+        // 10 times in a row, the card protection mechanisms introduce a delay that is
+        // validated empirically to be around 30 seconds.
+        timeout = timeoutController.shortTimeoutMillis();
+        card.setTimeout(timeout);
 
         try {
             card.connect();
@@ -108,6 +159,38 @@ public class NfcSmartCardReader extends SmartCardReader {
         return card.getHistoricalBytes();
     }
 
+    /**
+     * Metadata of the tag, available without exchanging APDUs
+     * @return
+     */
+    public NfcTagInfo tagInfo() {
+        return tagInfo;
+    }
+
+    /**
+     * Check if the card and the device support extended length APDUs over ISO-DEP
+     *
+     * @return
+     */
+    @Override
+    protected boolean supportsExtendedLength() {
+        return card.isExtendedLengthApduSupported();
+    }
+
+    /**
+     * I/O errors may be retried while the tag is still connected, a lost tag is not
+     * coming back within the retry delay.
+     *
+     * @param e Transport failure.
+     * @return
+     */
+    @Override
+    protected boolean isTransient(SmartCardReaderException e) {
+        return e.getCause() instanceof IOException
+                && !(e.getCause() instanceof TagLostException)
+                && card.isConnected();
+    }
+
     /**
      * set APDU encryption/decryption oracle
      *
@@ -117,6 +200,44 @@ public class NfcSmartCardReader extends SmartCardReader {
         this.apduEncryptor = apduEncryptor;
     }
 
+    /**
+     * Check if the secure messaging tunnel has been established
+     *
+     * @return
+     */
+    public boolean isSecureMessagingEstablished() {
+        return apduEncryptor != null;
+    }
+
+    /**
+     * Timeout controller of this reader, PACE implementations record their attempts in it
+     *
+     * @return
+     */
+    public NfcTimeoutController timeoutController() {
+        return timeoutController;
+    }
+
+    void setFirstApduListener(@Nullable LongConsumer firstApduListener) {
+        this.firstApduListener = firstApduListener;
+    }
+
+    long lastActivity() {
+        return lastActivity;
+    }
+
+    void setTagLostListener(@Nullable Runnable tagLostListener) {
+        this.tagLostListener = tagLostListener;
+    }
+
+    private void tagLost() {
+        Runnable listener = tagLostListener;
+        tagLostListener = null;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
     /**
      * APDU transaction with NFC reader
      *
@@ -129,85 +250,134 @@ public class NfcSmartCardReader extends SmartCardReader {
             LoggingUtil.Companion.debugLog(TAG, Hex.toHexString(apdu), null);
             return card.transceive(apdu);
         } catch (IOException ex) {
+            if (ex instanceof TagLostException) {
+                tagLost();
+            }
             throw new SmartCardReaderException(ex);
         }
     }
 
     /**
-     * NfcSmartCardReader overrides transmit logic from the SmartCardReader, since
+     * APDU transaction with NFC reader. IsoDep only accepts exactly sized arrays, so the
+     * command is copied unless it already fills its buffer. The response wraps the array
+     * returned by IsoDep.
+     * <p>
+     * A lost tag fails before sending, the timeout is set for the command being sent.
+     *
+     * @param command Encoded command APDU.
+     * @param response Response view to fill.
+     * @return Response.
+     * @throws SmartCardReaderException When something fails.
+     */
+    @Override
+    protected ResponseApdu transceive(CommandApdu command, ResponseApdu response)
+            throws SmartCardReaderException {
+        if (!card.isConnected()) {
+            tagLost();
+            throw new SmartCardReaderException(new TagLostException("Tag was lost"));
+        }
+        int commandTimeout = timeoutController.timeoutFor(command.ins(), isSecureMessagingEstablished());
+        if (commandTimeout != timeout) {
+            card.setTimeout(commandTimeout);
+            timeout = commandTimeout;
+        }
+        long sent = SystemClock.elapsedRealtime();
+        lastActivity = sent;
+        LongConsumer listener = firstApduListener;
+        if (listener != null) {
+            firstApduListener = null;
+            listener.accept(sent);
+        }
+        byte[] apdu = command.length() == command.array().length
+                ? command.array() : command.toByteArray();
+        byte[] bytes = transmit(apdu);
+        return response.set(bytes, 0, bytes.length);
+    }
+
+    /**
+     * NfcSmartCardReader overrides exchange logic from the SmartCardReader, since
      * the encryption/decryption slightly changes the way that e.g. retrieval of extra
      * data is handled.
+     * <p>
+     * Secure Messaging C-APDUs are always encoded as short APDUs. Error responses
+     * carry only status words and are returned without decryption.
      *
-     * @return
-     * @throws SmartCardReaderException
+     * @return Decrypted response data and status words.
+     * @throws SmartCardReaderException When transmission or decryption fails.
      */
-    public byte[] transmit(int cla, int ins, int p1, int p2, byte[] data, Integer le)
+    @Override
+    protected ResponseApdu exchange(int cla, int ins, int p1, int p2, byte[] data, Integer le)
             throws SmartCardReaderException {
 
         if (apduEncryptor == null) {
             // Before we have oracle all communication is unencrypted
-            return super.transmit(cla, ins, p1, p2, data, le);
+            return super.exchange(cla, ins, p1, p2, data, le);
         }
 
         try {
-            // Encryption of the C-APDU
-            byte[] response;
-            if (data == null || data.length == 0) {
-                response = transmit(apduEncryptor.encryptAndMac(cla, ins, p1, p2, data, le));
-            } else if (data.length < 256) {
-                response = transmit(apduEncryptor.encryptAndMac(cla, ins, p1, p2, data, le));
-            } else {
-                int remaining = data.length;
-                while (remaining >= 256) {
-                    transmit(apduEncryptor.encryptAndMac(0x10, ins, p1, p2,
-                            copyOfRange(data, data.length - remaining,
-                                    data.length - remaining + 255),
-                            le));
-
-                    remaining -= 255;
-                }
-                response = transmit(apduEncryptor.encryptAndMac(cla, ins, p1, p2,
-                        copyOfRange(data, data.length - remaining, data.length), le));
+            ResponseApdu response = transmitSecure(cla, ins, p1, p2, data, le);
+            if (response.sw1() == 0x6C) {
+                // Wrong Le, the card reports the exact number of bytes available
+                response = transmitSecure(cla, ins, p1, p2, data, getResponseLength(response.sw2()));
             }
 
-            byte sw1 = response[response.length - 2];
-            byte sw2 = response[response.length - 1];
+            byte sw1 = response.sw1();
+            byte sw2 = response.sw2();
             LoggingUtil.Companion.debugLog(TAG, String.format("R-APDU: SW1: 0x%02X, SW2: 0x%02X", sw1, sw2), null);
             // Decryption of the R-APDU
-            if (sw1 == (byte) 0x90 && sw2 == 0x00) {
-                return apduEncryptor.decryptAndVerify(response);
+            if (response.isSuccess() || response.isEndOfFile()) {
+                return decrypt(response.toByteArray(), sw1, sw2);
             } else if (sw1 == 0x61) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(
+                        response.length() + getResponseLength(sw2));
+                out.write(response.array(), response.arrayOffset(), response.dataLength());
                 // NB! GET RESPONSE for extra data must be unencrypted
-                byte[] missing = super.transmit(0x00, 0xC0, 0x00, 0x00, null, (int) sw2);
-
-                // We combine the whole APDU for decryptAndVerify
-                return apduEncryptor.decryptAndVerify(combineCompleteRApdu(response, missing));
+                ResponseApdu last = getResponse(response, out);
+                if (!last.isSuccess()) {
+                    return ResponseApdu.of(new byte[] {last.sw1(), last.sw2()});
+                }
+                // Status bytes from original R-APDU complete the encrypted R-APDU
+                out.write(sw1);
+                out.write(sw2);
+                return decrypt(out.toByteArray(), (byte) 0x90, (byte) 0x00);
             }
-            throw new ApduResponseException(sw1, sw2);
+            return response;
         } catch (GeneralSecurityException ex) {
             throw new SmartCardReaderException(ex);
         }
     }
 
-    /**
-     * Concatenate 2 R-APDU's to form a single encrypted R-APDU
-     *
-     * @param response - encrypted R-APDU that ended with 0x61
-     * @param missing - unencrypted data of R-APDU from GET RESPONSE
-     * @return
-     */
-    @NonNull
-    private static byte[] combineCompleteRApdu(byte[] response, byte[] missing) {
-        byte[] ret = new byte[response.length + missing.length];
-        int cursor = 0;
-        // Omit 2 status bytes of the R-APDU
-        System.arraycopy(response, 0, ret, cursor, response.length - 2);
-        cursor += response.length - 2;
-        // Insert extra data
-        System.arraycopy(missing, 0, ret, cursor, missing.length);
-        cursor += missing.length;
-        // Insert status bytes from original R-APDU
-        System.arraycopy(response, response.length - 2, ret, cursor, 2);
-        return ret;
+    private ResponseApdu decrypt(byte[] response, byte sw1, byte sw2)
+            throws GeneralSecurityException, SmartCardReaderException {
+        byte[] plain = apduEncryptor.decryptAndVerify(response);
+        byte[] result = Arrays.copyOf(plain, plain.length + 2);
+        result[plain.length] = sw1;
+        result[plain.length + 1] = sw2;
+        return ResponseApdu.of(result);
+    }
+
+    private ResponseApdu transmitSecure(int cla, int ins, int p1, int p2, byte[] data, Integer le)
+            throws SmartCardReaderException, GeneralSecurityException {
+        // Encryption of the C-APDU
+        if (data == null || data.length < 256) {
+            return transmitEncrypted(cla, ins, p1, p2, data, le);
+        }
+        int remaining = data.length;
+        while (remaining >= 256) {
+            transmitEncrypted(0x10, ins, p1, p2,
+                    copyOfRange(data, data.length - remaining,
+                            data.length - remaining + 255),
+                    le);
+
+            remaining -= 255;
+        }
+        return transmitEncrypted(cla, ins, p1, p2,
+                copyOfRange(data, data.length - remaining, data.length), le);
+    }
+
+    private ResponseApdu transmitEncrypted(int cla, int ins, int p1, int p2, byte[] data, Integer le)
+            throws SmartCardReaderException, GeneralSecurityException {
+        return send(CommandApdu.wrap(apduEncryptor.encryptAndMac(cla, ins, p1, p2, data, le)),
+                new ResponseApdu());
     }
 }
@@ -22,46 +22,177 @@ package ee.ria.DigiDoc.smartcardreader.nfc;
 import android.app.Activity;
 import android.nfc.NfcAdapter;
 import android.nfc.Tag;
+import android.os.SystemClock;
 
 import androidx.annotation.Nullable;
 
+import org.bouncycastle.util.encoders.Hex;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import ee.ria.DigiDoc.smartcardreader.SmartCardReader;
 import ee.ria.DigiDoc.smartcardreader.SmartCardReaderException;
+import ee.ria.DigiDoc.smartcardreader.SmartCardReaderManager;
+import ee.ria.DigiDoc.smartcardreader.SmartCardReaderStatus;
+import ee.ria.DigiDoc.utilsLib.logging.LoggingUtil;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.subjects.BehaviorSubject;
+import io.reactivex.rxjava3.subjects.Subject;
 
 /**
  * Communication manager for NFC based readers
  */
-public final class NfcSmartCardReaderManager implements NfcAdapter.ReaderCallback {
+public final class NfcSmartCardReaderManager implements NfcAdapter.ReaderCallback, SmartCardReaderManager {
+    private static final String TAG = NfcSmartCardReaderManager.class.getName();
+
+    /**
+     * Default time a client callback may hold the card, longer than the reader timeout
+     * of a single APDU.
+     */
+    private static final long DEFAULT_OPERATION_TIMEOUT_MILLIS = 60000;
+
+    /**
+     * Time the tag has to be out of range before it is reported as removed.
+     */
+    private static final int TAG_REMOVED_DEBOUNCE_MILLIS = 500;
+
+    /**
+     * Default time without APDUs after which a session is idle and its card is handed to
+     * the platform presence check.
+     */
+    private static final long DEFAULT_SESSION_IDLE_TIMEOUT_MILLIS = 60000;
+
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "nfc-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     /**
      * The actual NfcAdapter to use for comms
      */
     @Nullable
-    private NfcAdapter nfcAdapter;
+    private volatile NfcAdapter nfcAdapter;
 
     /**
      * Disables reader mode, detaches this manager from activity.
      */
     public void disableNfcReaderMode() {
-        if ((this.currentActivity != null) && (this.nfcAdapter != null)) {
-            this.nfcAdapter.disableReaderMode(this.currentActivity);
+        synchronized (this) {
+            this.discovery++;
+            this.clientCallback = null;
+        }
+        Activity activity = this.currentActivity;
+        NfcAdapter adapter = this.nfcAdapter;
+        if ((activity != null) && (adapter != null)) {
+            adapter.disableReaderMode(activity);
         }
         this.nfcAdapter = null;
         this.currentActivity = null;
+        NfcContinuousDiscovery<?> continuous = this.continuousDiscovery;
+        if (continuous != null) {
+            continuous.stop();
+            this.continuousDiscovery = null;
+        }
+        this.sessionCallback = null;
+        closeSession();
+        statusSubject.onNext(SmartCardReaderStatus.IDLE);
     }
 
     /**
      * Android NFC API is Activity bound
      */
     @Nullable
-    private Activity currentActivity;
+    private volatile Activity currentActivity;
 
     /**
      * Client callback to implement the functionality to be achieved
-     * once the NFC interface is connected
+     * once the NFC interface is connected, taken by the first discovered tag
      */
     @Nullable
     private NfcSmartCardReaderCallback clientCallback;
 
+    /**
+     * Incremented whenever discovery is started or reader mode disabled, so that a
+     * finished dispatch only disables the reader mode of its own discovery
+     */
+    private long discovery;
+
+    /**
+     * Active continuous discovery, reader mode stays enabled until it is stopped
+     */
+    @Nullable
+    private volatile NfcContinuousDiscovery<?> continuousDiscovery;
+
+    /**
+     * Client callback for session discovery, reader mode stays enabled while it is set
+     */
+    @Nullable
+    private volatile NfcCardSessionCallback sessionCallback;
+
+    /**
+     * Session of the card currently on the device
+     */
+    @Nullable
+    private NfcCardSession session;
+
+    /**
+     * Idle check of the open session, hands an idle card to the platform presence check
+     */
+    @Nullable
+    private ScheduledFuture<?> idleCheck;
+
+    /**
+     * Reader passed to the client callback that is currently running
+     */
+    @Nullable
+    private volatile NfcSmartCardReader dispatchReader;
+
+    /**
+     * IDLE while reader mode is disabled, READER_DETECTED while it is enabled and
+     * CARD_DETECTED while a card is connected
+     */
+    private final Subject<SmartCardReaderStatus> statusSubject =
+            BehaviorSubject.createDefault(SmartCardReaderStatus.IDLE).toSerialized();
+    private final Observable<SmartCardReaderStatus> statusObservable = statusSubject.distinctUntilChanged();
+
+    /**
+     * Executor running the client callbacks, created on first use
+     */
+    @Nullable
+    private Executor dispatchExecutor;
+
+    private volatile long operationTimeoutMillis = DEFAULT_OPERATION_TIMEOUT_MILLIS;
+
+    private volatile long sessionIdleTimeoutMillis = DEFAULT_SESSION_IDLE_TIMEOUT_MILLIS;
+
+    /**
+     * Timeout controller shared by the readers of consecutive taps, so that failed PACE
+     * attempts are remembered when the card is tapped again
+     */
+    private final NfcTimeoutController timeoutController = new NfcTimeoutController();
+
+    /**
+     * Reader mode flags and extras, applied when discovery is started
+     */
+    private volatile NfcReaderModeProfile readerModeProfile = NfcReaderModeProfile.DEFAULT;
+
+    private final Object statsLock = new Object();
+    private long dispatches;
+    private long timeouts;
+    private long totalQueueMillis;
+    private long maxQueueMillis;
+    private long totalRunMillis;
+    private long maxRunMillis;
+    private long firstApdus;
+    private long totalFirstApduMillis;
+    private long maxFirstApduMillis;
+
     /**
      * Create the NfcSmartCardReaderManager
      */
@@ -107,32 +238,465 @@ public final class NfcSmartCardReaderManager implements NfcAdapter.ReaderCallbac
             return NfcStatus.NFC_NOT_ACTIVE;
         }
 
-        this.clientCallback = callback;
+        synchronized (this) {
+            this.discovery++;
+            this.clientCallback = callback;
+        }
+        this.sessionCallback = null;
+        this.nfcAdapter.enableReaderMode(
+                this.currentActivity, this, readerModeProfile.flags(), readerModeProfile.extras());
+        statusSubject.onNext(SmartCardReaderStatus.READER_DETECTED);
+        return NfcStatus.NFC_ACTIVE;
+    }
+
+    /**
+     * Get NfcAdapter and enable the reader mode for NFC_A type of tags in continuous mode.
+     * <p>
+     * Reader mode stays enabled and every discovered card is processed on one of the
+     * worker threads until {@link #disableNfcReaderMode()} is called, which completes
+     * the results stream after the queued cards are processed.
+     *
+     * @param activity - active Activity for the NFC task
+     * @param workers - number of cards processed in parallel
+     * @param deduplicationMillis - time after processing during which the same tag is ignored
+     * @param processor - card processing done for every card
+     * @return - continuous discovery with the NFC status and results stream
+     */
+    public <T> NfcContinuousDiscovery<T> startContinuousDiscovery(Activity activity, int workers,
+                                                                  long deduplicationMillis,
+                                                                  NfcCardProcessor<T> processor) {
+        disableNfcReaderMode();
+        this.currentActivity = activity;
+        this.nfcAdapter = NfcAdapter.getDefaultAdapter(this.currentActivity);
+
+        NfcStatus status;
+        if (this.nfcAdapter == null) {
+            status = NfcStatus.NFC_NOT_SUPPORTED;
+        } else if (!this.nfcAdapter.isEnabled()) {
+            status = NfcStatus.NFC_NOT_ACTIVE;
+        } else {
+            status = NfcStatus.NFC_ACTIVE;
+        }
+
+        NfcContinuousDiscovery<T> discovery =
+                new NfcContinuousDiscovery<>(this, status, workers, deduplicationMillis, processor);
+        if (status == NfcStatus.NFC_ACTIVE) {
+            this.clientCallback = null;
+            this.continuousDiscovery = discovery;
+            this.nfcAdapter.enableReaderMode(
+                    this.currentActivity, discovery, readerModeProfile.flags(), readerModeProfile.extras());
+            statusSubject.onNext(SmartCardReaderStatus.READER_DETECTED);
+        }
+        return discovery;
+    }
+
+    /**
+     * Get NfcAdapter and enable the reader mode for NFC_A type of tags in session mode.
+     * <p>
+     * Reader mode stays enabled and the connection to a discovered card is kept open in
+     * a {@link NfcCardSession} until the session is closed, the card is replaced, the
+     * session is idle for {@link #setSessionIdleTimeout the idle timeout} or
+     * {@link #disableNfcReaderMode()} is called. This allows several operations, and
+     * user interaction between them, over a single PACE tunnel.
+     *
+     * @param activity - active Activity for the NFC task
+     * @param callback - customer callback, called on the NFC thread for every new session
+     * @return - status if the NFC is available / enabled / active
+     */
+    public NfcStatus startSessionDiscovery(Activity activity, NfcCardSessionCallback callback) {
+        disableNfcReaderMode();
+        this.currentActivity = activity;
+        this.nfcAdapter = NfcAdapter.getDefaultAdapter(this.currentActivity);
+
+        if (this.nfcAdapter == null) {
+            return NfcStatus.NFC_NOT_SUPPORTED;
+        }
+
+        if (!this.nfcAdapter.isEnabled()) {
+            return NfcStatus.NFC_NOT_ACTIVE;
+        }
+
+        this.clientCallback = null;
+        this.sessionCallback = callback;
         this.nfcAdapter.enableReaderMode(
-                this.currentActivity, this, NfcAdapter.FLAG_READER_NFC_A, null);
+                this.currentActivity, this, readerModeProfile.flags(), readerModeProfile.extras());
+        statusSubject.onNext(SmartCardReaderStatus.READER_DETECTED);
         return NfcStatus.NFC_ACTIVE;
     }
 
     /**
-     * Internal NFC callback upon the tag detection. Creates the smart card reader and
-     * calls the client callback and after success disables the reader mode.
+     * Status of NFC reader mode and card presence. Card removal is reported by the
+     * platform once the card is no longer used, an open session counts as no longer used
+     * after the session idle timeout, or immediately when card I/O finds the tag lost.
+     *
+     * @return - status stream, replays the current status
+     */
+    @Override
+    public Observable<SmartCardReaderStatus> status() {
+        return statusObservable;
+    }
+
+    /**
+     * Reader of the card currently connected, from the open session or the running
+     * client callback.
+     *
+     * @return - connected reader
+     * @throws SmartCardReaderException - when no card is connected
+     */
+    @Override
+    public SmartCardReader connectedReader() throws SmartCardReaderException {
+        NfcCardSession current = currentSession();
+        if (current != null) {
+            return current.reader();
+        }
+        NfcSmartCardReader reader = dispatchReader;
+        if (reader != null && reader.connected()) {
+            return reader;
+        }
+        throw new SmartCardReaderException("Reader or card is not connected");
+    }
+
+    /**
+     * Session of the card currently on the device.
+     *
+     * @return - active session or null when there is no card or the session was closed
+     */
+    @Nullable
+    public synchronized NfcCardSession currentSession() {
+        if (session != null && !session.isActive()) {
+            closeSession();
+        }
+        return session;
+    }
+
+    synchronized void sessionClosed(NfcCardSession closedSession) {
+        if (session == closedSession) {
+            session = null;
+            stopIdleCheck();
+            cardReleased(closedSession.tag());
+        }
+    }
+
+    /**
+     * A card is being used, report CARD_DETECTED while reader mode is enabled.
+     */
+    void cardConnected() {
+        if (this.nfcAdapter != null) {
+            statusSubject.onNext(SmartCardReaderStatus.CARD_DETECTED);
+        }
+    }
+
+    /**
+     * The card is no longer used, report READER_DETECTED once it has left the field.
+     */
+    void cardReleased(Tag tag) {
+        NfcAdapter adapter = this.nfcAdapter;
+        if (adapter == null) {
+            return;
+        }
+        if (!adapter.ignore(tag, TAG_REMOVED_DEBOUNCE_MILLIS, this::tagRemoved, null)) {
+            tagRemoved();
+        }
+    }
+
+    private void tagRemoved() {
+        if (this.nfcAdapter != null) {
+            statusSubject.onNext(SmartCardReaderStatus.READER_DETECTED);
+        }
+    }
+
+    private void tagLost(NfcSmartCardReader reader) {
+        LoggingUtil.Companion.debugLog(TAG, "Tag was lost", null);
+        synchronized (this) {
+            if (session != null && session.reader() == reader) {
+                closeSession();
+            }
+        }
+        tagRemoved();
+    }
+
+    private void closeSession() {
+        closeSession(true);
+    }
+
+    /**
+     * Close the open session.
+     *
+     * @param release Whether to report the card as released, false when another card
+     * has replaced it.
+     */
+    private synchronized void closeSession(boolean release) {
+        NfcCardSession current = session;
+        session = null;
+        stopIdleCheck();
+        if (current != null) {
+            current.close();
+            if (release) {
+                cardReleased(current.tag());
+            }
+        }
+    }
+
+    private synchronized void stopIdleCheck() {
+        if (idleCheck != null) {
+            idleCheck.cancel(false);
+            idleCheck = null;
+        }
+    }
+
+    private synchronized void scheduleIdleCheck(NfcCardSession checked, long delayMillis) {
+        idleCheck = WATCHDOG.schedule(() -> idleCheck(checked), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The platform reports removal of a connected tag only through I/O failures. Once
+     * the session has been idle for the idle timeout, it is closed and the card is
+     * ignored with {@link NfcAdapter#ignore}, so that the platform presence check
+     * reports its removal.
+     */
+    private void idleCheck(NfcCardSession checked) {
+        long idleMillis = SystemClock.elapsedRealtime() - checked.reader().lastActivity();
+        long timeoutMillis = sessionIdleTimeoutMillis;
+        synchronized (this) {
+            if (session != checked) {
+                return;
+            }
+            if (idleMillis < timeoutMillis) {
+                scheduleIdleCheck(checked, timeoutMillis - idleMillis);
+                return;
+            }
+            LoggingUtil.Companion.debugLog(TAG, "Card session idle for " + idleMillis + "ms, releasing card", null);
+            closeSession();
+        }
+    }
+
+    private void onSessionTagDiscovered(Tag tag, NfcCardSessionCallback callback, long discovered) {
+        closeSession(false);
+        NfcCardSession newSession = null;
+        SmartCardReaderException ex = null;
+        try {
+            NfcSmartCardReader reader = new NfcSmartCardReader(tag, timeoutController);
+            reader.setFirstApduListener(sent -> recordFirstApdu(sent - discovered));
+            reader.setTagLostListener(() -> tagLost(reader));
+            newSession = new NfcCardSession(tag, reader, Hex.toHexString(tag.getId()), this);
+            synchronized (this) {
+                session = newSession;
+                scheduleIdleCheck(newSession, sessionIdleTimeoutMillis);
+            }
+            statusSubject.onNext(SmartCardReaderStatus.CARD_DETECTED);
+        } catch (SmartCardReaderException e) {
+            ex = e;
+        }
+        callback.onNfcSession(newSession, ex);
+    }
+
+    /**
+     * Internal NFC callback upon the tag detection. Dispatches the tag to the client
+     * callback executor, which creates the smart card reader, calls the client callback
+     * and after that closes the reader and disables the reader mode.
+     * <p>
+     * The client callback is called once per {@link #startDiscovery}: the first tag takes
+     * it, tags discovered again while it runs are ignored.
      * @param tag
      */
     public void onTagDiscovered(Tag tag) {
+        // Taken first, the platform gives no earlier timestamp of the tag
+        long discovered = SystemClock.elapsedRealtime();
+        NfcCardSessionCallback callback = sessionCallback;
+        if (callback != null) {
+            onSessionTagDiscovered(tag, callback, discovered);
+            return;
+        }
+        NfcSmartCardReaderCallback readerCallback;
+        long tagDiscovery;
+        synchronized (this) {
+            readerCallback = clientCallback;
+            clientCallback = null;
+            tagDiscovery = discovery;
+        }
+        if (readerCallback == null) {
+            LoggingUtil.Companion.debugLog(TAG, "Ignoring tag, no client callback waiting", null);
+            return;
+        }
+        try {
+            dispatchExecutor().execute(() -> dispatch(tag, readerCallback, discovered, tagDiscovery));
+        } catch (RejectedExecutionException e) {
+            LoggingUtil.Companion.errorLog(TAG, "Tag callback dispatch rejected", e);
+            readerCallback.onNfcReader(null, new SmartCardReaderException("Tag callback dispatch rejected", e));
+            disableNfcReaderMode(tagDiscovery);
+        }
+    }
+
+    /**
+     * Disable reader mode unless discovery was started again or disabled since the tag
+     * of the given discovery was found.
+     */
+    private void disableNfcReaderMode(long tagDiscovery) {
+        synchronized (this) {
+            if (discovery != tagDiscovery) {
+                return;
+            }
+        }
+        disableNfcReaderMode();
+    }
+
+    /**
+     * Run the client callback on the dispatch executor. The reader is closed when the
+     * operation timeout expires, which fails the card I/O in progress, and right after
+     * the callback returns, before reader mode is disabled.
+     */
+    private void dispatch(Tag tag, NfcSmartCardReaderCallback readerCallback, long discovered,
+                          long tagDiscovery) {
+        long started = SystemClock.elapsedRealtime();
         NfcSmartCardReader reader = null;
         SmartCardReaderException ex = null;
         try {
-            reader = new NfcSmartCardReader(tag);
+            reader = new NfcSmartCardReader(tag, timeoutController);
+            reader.setFirstApduListener(sent -> recordFirstApdu(sent - discovered));
+            reader.setTagLostListener(this::tagRemoved);
+            dispatchReader = reader;
+            statusSubject.onNext(SmartCardReaderStatus.CARD_DETECTED);
         } catch (SmartCardReaderException e) {
             ex = e;
         }
-        if (clientCallback != null) {
-            clientCallback.onNfcReader(reader, ex);
+        ScheduledFuture<?> timeout = null;
+        if (reader != null) {
+            NfcSmartCardReader timedReader = reader;
+            timeout = WATCHDOG.schedule(() -> {
+                LoggingUtil.Companion.debugLog(TAG, "Tag callback exceeded "
+                        + operationTimeoutMillis + "ms, closing reader", null);
+                synchronized (statsLock) {
+                    timeouts++;
+                }
+                timedReader.close();
+            }, operationTimeoutMillis, TimeUnit.MILLISECONDS);
         }
+        try {
+            readerCallback.onNfcReader(reader, ex);
+        } finally {
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            if (reader != null) {
+                dispatchReader = null;
+                reader.close();
+            }
+            long finished = SystemClock.elapsedRealtime();
+            recordDispatch(started - discovered, finished - started);
+            disableNfcReaderMode(tagDiscovery);
+        }
+    }
 
-        assert reader != null;
-        reader.close();
-        disableNfcReaderMode();
+    private void recordDispatch(long queueMillis, long runMillis) {
+        synchronized (statsLock) {
+            dispatches++;
+            totalQueueMillis += queueMillis;
+            maxQueueMillis = Math.max(maxQueueMillis, queueMillis);
+            totalRunMillis += runMillis;
+            maxRunMillis = Math.max(maxRunMillis, runMillis);
+        }
+    }
+
+    private void recordFirstApdu(long firstApduMillis) {
+        synchronized (statsLock) {
+            firstApdus++;
+            totalFirstApduMillis += firstApduMillis;
+            maxFirstApduMillis = Math.max(maxFirstApduMillis, firstApduMillis);
+        }
+    }
+
+    private synchronized Executor dispatchExecutor() {
+        if (dispatchExecutor == null) {
+            dispatchExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "nfc-dispatch");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return dispatchExecutor;
+    }
+
+    /**
+     * Set the executor running the client callbacks of {@link #startDiscovery}, by default
+     * a single background thread. Callbacks are never run on the NFC binder thread.
+     *
+     * @param executor - executor for client callbacks, null to use the default
+     */
+    public synchronized void setDispatchExecutor(@Nullable Executor executor) {
+        this.dispatchExecutor = executor;
+    }
+
+    /**
+     * Set the time a client callback may hold the card, the reader is closed afterwards.
+     *
+     * @param timeoutMillis - operation timeout in milliseconds
+     */
+    public void setOperationTimeout(long timeoutMillis) {
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("Operation timeout must be positive");
+        }
+        this.operationTimeoutMillis = timeoutMillis;
+    }
+
+    public long getOperationTimeout() {
+        return operationTimeoutMillis;
+    }
+
+    /**
+     * Set the time a card session may go without APDUs. An idle session is closed and
+     * the removal of its card is reported by the platform, the card has to be tapped
+     * again for a new session.
+     *
+     * @param timeoutMillis - session idle timeout in milliseconds
+     */
+    public void setSessionIdleTimeout(long timeoutMillis) {
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("Session idle timeout must be positive");
+        }
+        this.sessionIdleTimeoutMillis = timeoutMillis;
+    }
+
+    public long getSessionIdleTimeout() {
+        return sessionIdleTimeoutMillis;
+    }
+
+    /**
+     * Set the reader mode profile, applied when discovery is started next time.
+     *
+     * @param profile - reader mode flags and extras
+     */
+    public void setReaderModeProfile(NfcReaderModeProfile profile) {
+        this.readerModeProfile = profile;
+    }
+
+    public NfcReaderModeProfile getReaderModeProfile() {
+        return readerModeProfile;
+    }
+
+    /**
+     * Timeout controller of the readers created by {@link #startDiscovery},
+     * {@link #startSessionDiscovery} and {@link #startContinuousDiscovery}.
+     *
+     * @return - timeout controller
+     */
+    public NfcTimeoutController timeoutController() {
+        return timeoutController;
+    }
+
+    /**
+     * Snapshot of the callback queueing and run latency, and of the time from tag
+     * discovery to the first APDU. Discovery is the start of {@link #onTagDiscovered},
+     * the earliest point visible to the application, which is after the platform's NDEF
+     * check. The statistics measure the application side and do not compare reader mode
+     * profiles.
+     *
+     * @return - dispatch statistics
+     */
+    public NfcDispatchStats dispatchStats() {
+        synchronized (statsLock) {
+            return new NfcDispatchStats(dispatches, timeouts, totalQueueMillis, maxQueueMillis,
+                    totalRunMillis, maxRunMillis, firstApdus, totalFirstApduMillis, maxFirstApduMillis);
+        }
     }
 
     /**
@@ -159,4 +723,20 @@ public final class NfcSmartCardReaderManager implements NfcAdapter.ReaderCallbac
          */
         void onNfcReader(NfcSmartCardReader reader, SmartCardReaderException ex);
     }
+
+    /**
+     * Client callback interface for session discovery.
+     */
+    public interface NfcCardSessionCallback {
+
+        /**
+         * The callback that is called when a card is discovered and its session opened
+         * @param session - session that was opened, stays open after the callback returns
+         * @param ex - exception that happened during connecting to the card
+         * <p>
+         * The implementer must first ensure that the exception did not take place and
+         * only then the session can be used
+         */
+        void onNfcSession(NfcCardSession session, SmartCardReaderException ex);
+    }
 }
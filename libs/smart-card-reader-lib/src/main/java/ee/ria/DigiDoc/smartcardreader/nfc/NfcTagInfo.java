@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017 - 2025 Riigi Infosüsteemi Amet
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package ee.ria.DigiDoc.smartcardreader.nfc;
+
+import android.nfc.Tag;
+import android.nfc.tech.IsoDep;
+import android.nfc.tech.NfcA;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.bouncycastle.util.encoders.Hex;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Tag metadata available from the platform before any APDU is sent, used to identify
+ * the card.
+ */
+public final class NfcTagInfo {
+
+    private static final String ISO_DEP = IsoDep.class.getName();
+
+    /**
+     * SAK bit announcing ISO/IEC 14443-4 compliance.
+     */
+    private static final int SAK_ISO_14443_4 = 0x20;
+
+    private final String[] techList;
+    @Nullable private final byte[] atqa;
+    private final int sak;
+    @Nullable private final byte[] historicalBytes;
+
+    NfcTagInfo(String[] techList, @Nullable byte[] atqa, int sak, @Nullable byte[] historicalBytes) {
+        this.techList = techList;
+        this.atqa = atqa;
+        this.sak = sak;
+        this.historicalBytes = historicalBytes;
+    }
+
+    static NfcTagInfo of(Tag tag, IsoDep card) {
+        NfcA nfcA = NfcA.get(tag);
+        return new NfcTagInfo(tag.getTechList(),
+                nfcA == null ? null : nfcA.getAtqa(),
+                nfcA == null ? 0 : nfcA.getSak() & 0xFF,
+                card.getHistoricalBytes());
+    }
+
+    public String[] techList() {
+        return techList.clone();
+    }
+
+    @Nullable
+    public byte[] atqa() {
+        return atqa == null ? null : atqa.clone();
+    }
+
+    public int sak() {
+        return sak;
+    }
+
+    /**
+     * @return Historical bytes of the ATS, null when not available.
+     */
+    @Nullable
+    public byte[] historicalBytes() {
+        return historicalBytes == null ? null : historicalBytes.clone();
+    }
+
+    /**
+     * @return Whether the tag supports ISO-DEP, as announced by the tech list and the SAK.
+     */
+    public boolean isIsoDep() {
+        return Arrays.asList(techList).contains(ISO_DEP) && (atqa == null || (sak & SAK_ISO_14443_4) != 0);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "NfcTagInfo{atqa=%s, sak=%02x, historicalBytes=%s}",
+                atqa == null ? "null" : Hex.toHexString(atqa), sak,
+                historicalBytes == null ? "null" : Hex.toHexString(historicalBytes));
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2017 - 2025 Riigi Infosüsteemi Amet
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package ee.ria.DigiDoc.smartcardreader.nfc;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chooses the IsoDep timeout for each command.
+ * <p>
+ * Most commands are answered within milliseconds, so they get a short timeout and a card
+ * that was pulled away fails quickly. Signing (PSO) and INTERNAL AUTHENTICATE do private
+ * key operations and get the long timeout. After wrong CAN entries the card delays PACE
+ * for around 30 seconds, and the card remembers this across taps and app restarts, so
+ * every PACE step (MSE:Set AT and General Authenticate sent before the secure channel
+ * exists) gets the long timeout. General Authenticate inside the secure channel gets the
+ * long timeout after a failed PACE attempt, until PACE succeeds again.
+ * <p>
+ * The controller can be shared by the readers of consecutive taps, see
+ * {@link NfcSmartCardReaderManager#timeoutController()}.
+ */
+public final class NfcTimeoutController {
+
+    public static final int DEFAULT_SHORT_TIMEOUT_MILLIS = 5000;
+    public static final int DEFAULT_LONG_TIMEOUT_MILLIS = 50000;
+
+    private static final int INS_MSE = 0x22;
+    private static final int INS_PSO = 0x2A;
+    private static final int INS_INTERNAL_AUTHENTICATE = 0x88;
+    private static final int INS_GENERAL_AUTHENTICATE = 0x86;
+
+    private final int shortTimeoutMillis;
+    private final int longTimeoutMillis;
+    private final AtomicInteger paceFailures = new AtomicInteger();
+
+    public NfcTimeoutController() {
+        this(DEFAULT_SHORT_TIMEOUT_MILLIS, DEFAULT_LONG_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param shortTimeoutMillis Timeout of ordinary commands.
+     * @param longTimeoutMillis Timeout of commands that may take long on the card.
+     */
+    public NfcTimeoutController(int shortTimeoutMillis, int longTimeoutMillis) {
+        if (shortTimeoutMillis <= 0 || longTimeoutMillis < shortTimeoutMillis) {
+            throw new IllegalArgumentException("Invalid timeouts: " + shortTimeoutMillis + ", " + longTimeoutMillis);
+        }
+        this.shortTimeoutMillis = shortTimeoutMillis;
+        this.longTimeoutMillis = longTimeoutMillis;
+    }
+
+    /**
+     * @param ins Instruction byte of a command sent in the secure channel.
+     * @return Timeout in milliseconds for the command.
+     */
+    public int timeoutFor(int ins) {
+        return timeoutFor(ins, true);
+    }
+
+    /**
+     * @param ins Instruction byte of the command.
+     * @param secureMessaging Whether the command is sent in an established secure channel.
+     * @return Timeout in milliseconds for the command.
+     */
+    public int timeoutFor(int ins, boolean secureMessaging) {
+        int instruction = ins & 0xFF;
+        if (!secureMessaging && (instruction == INS_MSE || instruction == INS_GENERAL_AUTHENTICATE)) {
+            return longTimeoutMillis;
+        }
+        switch (instruction) {
+            case INS_PSO:
+            case INS_INTERNAL_AUTHENTICATE:
+                return longTimeoutMillis;
+            case INS_GENERAL_AUTHENTICATE:
+                return paceFailures.get() > 0 ? longTimeoutMillis : shortTimeoutMillis;
+            default:
+                return shortTimeoutMillis;
+        }
+    }
+
+    public int shortTimeoutMillis() {
+        return shortTimeoutMillis;
+    }
+
+    public int longTimeoutMillis() {
+        return longTimeoutMillis;
+    }
+
+    /**
+     * Record a failed PACE attempt, for example a wrong CAN.
+     */
+    public void recordPaceFailure() {
+        paceFailures.incrementAndGet();
+    }
+
+    /**
+     * Record an established PACE tunnel, the card no longer delays General Authenticate.
+     */
+    public void recordPaceSuccess() {
+        paceFailures.set(0);
+    }
+
+    /**
+     * @return Number of failed PACE attempts since the last successful one.
+     */
+    public int paceFailures() {
+        return paceFailures.get();
+    }
+}
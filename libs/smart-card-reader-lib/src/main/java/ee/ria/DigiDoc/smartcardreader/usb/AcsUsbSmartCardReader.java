@@ -22,22 +22,73 @@ package ee.ria.DigiDoc.smartcardreader.usb;
 import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbManager;
 
+import androidx.annotation.Nullable;
+
 import com.acs.smartcard.Reader;
 import com.acs.smartcard.ReaderException;
 
-import java.util.Arrays;
-
+import ee.ria.DigiDoc.smartcardreader.CommandApdu;
+import ee.ria.DigiDoc.smartcardreader.ResponseApdu;
 import ee.ria.DigiDoc.smartcardreader.SmartCardReaderException;
 import ee.ria.DigiDoc.utilsLib.logging.LoggingUtil;
 
+/**
+ * ACS reader with an explicit slot state machine. The card is reset and its protocol
+ * negotiated only when it is inserted, after that {@link #connected()} only reads the
+ * state and the ATR is served from cache.
+ */
 public final class AcsUsbSmartCardReader extends UsbSmartCardReader {
     private static final String TAG = AcsUsbSmartCardReader.class.getName();
     private static final int SLOT = 0;
 
+    /**
+     * State of the card in the slot as seen by this reader.
+     */
+    private enum SlotState {
+        ABSENT,
+        PRESENT,
+        POWERED,
+        NEGOTIATED
+    }
+
     private final Reader reader;
+    @Nullable private volatile CardStateListener cardStateListener;
+
+    private SlotState slotState = SlotState.ABSENT;
+    @Nullable private byte[] atr;
 
     public AcsUsbSmartCardReader(UsbManager usbManager) {
         reader = new Reader(usbManager);
+        reader.setOnStateChangeListener((slot, previousState, currentState) -> {
+            if (slot != SLOT) {
+                return;
+            }
+            if (currentState == Reader.CARD_ABSENT) {
+                cardRemoved();
+            }
+            CardStateListener listener = cardStateListener;
+            if (listener != null) {
+                listener.onCardStateChanged();
+            }
+        });
+    }
+
+    /**
+     * @return Factory creating a reader for every supported ACS device.
+     */
+    public static UsbSmartCardReaderFactory factory(UsbManager usbManager) {
+        AcsUsbSmartCardReader probe = new AcsUsbSmartCardReader(usbManager);
+        return new UsbSmartCardReaderFactory() {
+            @Override
+            public boolean supports(UsbDevice usbDevice) {
+                return probe.supports(usbDevice);
+            }
+
+            @Override
+            public UsbSmartCardReader create() {
+                return new AcsUsbSmartCardReader(usbManager);
+            }
+        };
     }
 
     @Override
@@ -50,38 +101,128 @@ public final class AcsUsbSmartCardReader extends UsbSmartCardReader {
         reader.open(usbDevice);
     }
 
+    @Override
+    public boolean reportsCardState() {
+        return true;
+    }
+
+    @Override
+    public void setCardStateListener(@Nullable CardStateListener listener) {
+        cardStateListener = listener;
+    }
+
     @Override
     public void close() {
+        cardStateListener = null;
+        cardRemoved();
         reader.close();
+        releaseReceiveBuffer();
     }
 
     @Override
     public boolean connected() {
-        if (reader.isOpened() && reader.getState(SLOT) == Reader.CARD_PRESENT) {
-            try {
-                reader.power(SLOT, Reader.CARD_WARM_RESET);
-                reader.setProtocol(SLOT, Reader.PROTOCOL_TX);
-            } catch (ReaderException e) {
-                LoggingUtil.Companion.errorLog(TAG, "Connecting to ACS reader exception: " + e.getMessage(), e);
-            }
+        if (!reader.isOpened()) {
+            return false;
+        }
+        return updateSlotState(reader.getState(SLOT)) == SlotState.NEGOTIATED;
+    }
+
+    /**
+     * Advance the slot state from the driver state. A card seen present is reset until a
+     * reset succeeds, a card already in the specific mode is adopted as is.
+     */
+    private synchronized SlotState updateSlotState(int driverState) {
+        switch (driverState) {
+            case Reader.CARD_PRESENT:
+                if (slotState != SlotState.ABSENT && slotState != SlotState.PRESENT) {
+                    // Removal was missed, the card has been replaced
+                    cardRemoved();
+                }
+                if (slotState == SlotState.ABSENT) {
+                    slotState = SlotState.PRESENT;
+                }
+                if (slotState == SlotState.PRESENT) {
+                    // Reset again on every check until a reset succeeds
+                    powerUp();
+                }
+                break;
+            case Reader.CARD_POWERED:
+            case Reader.CARD_NEGOTIABLE:
+                if (slotState != SlotState.POWERED) {
+                    slotState = SlotState.POWERED;
+                    atr = reader.getAtr(SLOT);
+                }
+                negotiate();
+                break;
+            case Reader.CARD_SPECIFIC:
+                if (slotState != SlotState.NEGOTIATED) {
+                    atr = reader.getAtr(SLOT);
+                    slotState = SlotState.NEGOTIATED;
+                }
+                break;
+            default:
+                cardRemoved();
+                break;
+        }
+        return slotState;
+    }
+
+    private void powerUp() {
+        try {
+            atr = reader.power(SLOT, Reader.CARD_WARM_RESET);
+            slotState = SlotState.POWERED;
+        } catch (ReaderException e) {
+            LoggingUtil.Companion.errorLog(TAG, "Connecting to ACS reader exception: " + e.getMessage(), e);
+            return;
+        }
+        negotiate();
+    }
+
+    private void negotiate() {
+        if (slotState != SlotState.POWERED) {
+            return;
+        }
+        try {
+            reader.setProtocol(SLOT, Reader.PROTOCOL_TX);
+            slotState = SlotState.NEGOTIATED;
+        } catch (ReaderException e) {
+            LoggingUtil.Companion.errorLog(TAG, "Connecting to ACS reader exception: " + e.getMessage(), e);
         }
-        return reader.isOpened() && reader.getState(SLOT) == Reader.CARD_SPECIFIC;
+    }
+
+    private synchronized void cardRemoved() {
+        slotState = SlotState.ABSENT;
+        atr = null;
     }
 
     @Override
-    public byte[] atr() {
-        return reader.getAtr(SLOT);
+    public synchronized byte[] atr() {
+        if (atr == null) {
+            atr = reader.getAtr(SLOT);
+        }
+        return atr;
+    }
+
+    @Override
+    protected boolean supportsExtendedLength() {
+        return reader.isOpened() && reader.getProtocol(SLOT) == Reader.PROTOCOL_T1;
     }
 
     @Override
     protected byte[] transmit(byte[] apdu) throws SmartCardReaderException {
-        byte[] recv = new byte[1024];
+        return transceive(CommandApdu.wrap(apdu), new ResponseApdu()).toByteArray();
+    }
+
+    @Override
+    protected ResponseApdu transceive(CommandApdu command, ResponseApdu response)
+            throws SmartCardReaderException {
+        byte[] recv = receiveBuffer();
         int len;
         try {
-            len = reader.transmit(SLOT, apdu, apdu.length, recv, recv.length);
+            len = reader.transmit(SLOT, command.array(), command.length(), recv, recv.length);
         } catch (ReaderException e) {
             throw new SmartCardReaderException(e);
         }
-        return Arrays.copyOf(recv, len);
+        return response.set(recv, 0, len);
     }
 }
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2017 - 2025 Riigi Infosüsteemi Amet
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package ee.ria.DigiDoc.smartcardreader.usb;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Smart card device class descriptor of a CCID reader.
+ */
+final class CcidDescriptor {
+
+    /**
+     * Level of the exchanges between the host and the reader.
+     */
+    enum ExchangeLevel {
+        /**
+         * Character level, not supported.
+         */
+        CHARACTER,
+        /**
+         * Host sends TPDUs and runs the T=0 or T=1 transmission protocol.
+         */
+        TPDU,
+        /**
+         * Reader accepts short APDUs.
+         */
+        SHORT_APDU,
+        /**
+         * Reader accepts short and extended APDUs.
+         */
+        EXTENDED_APDU
+    }
+
+    private static final int DESCRIPTOR_TYPE = 0x21;
+    private static final int DESCRIPTOR_LENGTH = 0x36;
+
+    private static final int FEATURE_AUTO_PARAMETERS_ATR = 0x00000002;
+    private static final int FEATURE_AUTO_PARAMETERS_NEGOTIATION = 0x00000040;
+    private static final int FEATURE_AUTO_PPS = 0x00000080;
+    private static final int FEATURE_TPDU = 0x00010000;
+    private static final int FEATURE_SHORT_APDU = 0x00020000;
+    private static final int FEATURE_EXTENDED_APDU = 0x00040000;
+
+    private final int features;
+    private final int maxMessageLength;
+    private final int maxIfsd;
+
+    CcidDescriptor(int features, int maxMessageLength, int maxIfsd) {
+        this.features = features;
+        this.maxMessageLength = maxMessageLength;
+        this.maxIfsd = maxIfsd;
+    }
+
+    /**
+     * Find the smart card device class descriptor in the raw descriptors of a device.
+     *
+     * @return Descriptor, null when the device does not have one.
+     */
+    @Nullable
+    static CcidDescriptor parse(byte[] raw) {
+        int offset = 0;
+        while (offset + 1 < raw.length) {
+            int length = raw[offset] & 0xFF;
+            if (length == 0) {
+                return null;
+            }
+            if (length == DESCRIPTOR_LENGTH && (raw[offset + 1] & 0xFF) == DESCRIPTOR_TYPE
+                    && offset + length <= raw.length) {
+                return new CcidDescriptor(
+                        int32(raw, offset + 40), int32(raw, offset + 44), int32(raw, offset + 28));
+            }
+            offset += length;
+        }
+        return null;
+    }
+
+    private static int int32(byte[] raw, int offset) {
+        return (raw[offset] & 0xFF) | (raw[offset + 1] & 0xFF) << 8
+                | (raw[offset + 2] & 0xFF) << 16 | (raw[offset + 3] & 0xFF) << 24;
+    }
+
+    ExchangeLevel exchangeLevel() {
+        if ((features & FEATURE_EXTENDED_APDU) != 0) {
+            return ExchangeLevel.EXTENDED_APDU;
+        }
+        if ((features & FEATURE_SHORT_APDU) != 0) {
+            return ExchangeLevel.SHORT_APDU;
+        }
+        if ((features & FEATURE_TPDU) != 0) {
+            return ExchangeLevel.TPDU;
+        }
+        return ExchangeLevel.CHARACTER;
+    }
+
+    /**
+     * @return Whether the reader sets the card parameters itself after power on.
+     */
+    boolean autoParameters() {
+        return (features & (FEATURE_AUTO_PARAMETERS_ATR | FEATURE_AUTO_PARAMETERS_NEGOTIATION
+                | FEATURE_AUTO_PPS)) != 0;
+    }
+
+    /**
+     * @return Maximum length of a CCID message, including the 10-byte header.
+     */
+    int maxMessageLength() {
+        return maxMessageLength;
+    }
+
+    /**
+     * @return Maximum T=1 information field size the reader accepts from the card.
+     */
+    int maxIfsd() {
+        return maxIfsd;
+    }
+}
@@ -0,0 +1,389 @@
+/*
+ * Copyright 2017 - 2025 Riigi Infosüsteemi Amet
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package ee.ria.DigiDoc.smartcardreader.usb;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+import ee.ria.DigiDoc.smartcardreader.SmartCardReaderException;
+
+/**
+ * CCID bulk message protocol of one reader slot.
+ * <p>
+ * Commands are encoded into a buffer allocated once for the reader's maximum message
+ * length. APDU level readers get the APDU in XfrBlock messages, chained when it does not
+ * fit into one message. TPDU level readers get T=0 TPDUs or {@link CcidT1 T=1} blocks,
+ * depending on the protocol offered in the ATR.
+ */
+final class CcidProtocol {
+
+    static final int ICC_ACTIVE = 0;
+    static final int ICC_INACTIVE = 1;
+    static final int ICC_ABSENT = 2;
+
+    static final int PC_TO_RDR_SET_PARAMETERS = 0x61;
+    static final int PC_TO_RDR_ICC_POWER_ON = 0x62;
+    static final int PC_TO_RDR_ICC_POWER_OFF = 0x63;
+    static final int PC_TO_RDR_GET_SLOT_STATUS = 0x65;
+    static final int PC_TO_RDR_XFR_BLOCK = 0x6F;
+    static final int RDR_TO_PC_DATA_BLOCK = 0x80;
+    static final int RDR_TO_PC_SLOT_STATUS = 0x81;
+    static final int RDR_TO_PC_PARAMETERS = 0x82;
+    static final int RDR_TO_PC_NOTIFY_SLOT_CHANGE = 0x50;
+
+    static final int HEADER_LENGTH = 10;
+
+    private static final int COMMAND_FAILED = 1;
+    private static final int TIME_EXTENSION = 2;
+
+    private static final int CHAIN_BEGIN = 0x01;
+    private static final int CHAIN_END = 0x02;
+    private static final int CHAIN_CONTINUE = 0x03;
+    private static final int CHAIN_EMPTY = 0x10;
+
+    private static final int TIMEOUT_MILLIS = 5000;
+
+    private final CcidTransport transport;
+    private final CcidDescriptor descriptor;
+    private final int slot;
+    private final byte[] message;
+    private final byte[] response;
+    private int sequence;
+    @Nullable private CcidT1 t1;
+
+    CcidProtocol(CcidTransport transport, CcidDescriptor descriptor, int slot) {
+        this.transport = transport;
+        this.descriptor = descriptor;
+        this.slot = slot;
+        int length = Math.max(descriptor.maxMessageLength(), HEADER_LENGTH + 261);
+        this.message = new byte[length];
+        this.response = new byte[length];
+    }
+
+    /**
+     * @return Whether a RDR_to_PC_NotifySlotChange message reports a change of the slot.
+     */
+    static boolean isSlotChange(byte[] message, int length, int slot) {
+        int index = 1 + slot / 4;
+        return length > index && (message[0] & 0xFF) == RDR_TO_PC_NOTIFY_SLOT_CHANGE
+                && (message[index] >> (slot % 4 * 2) & 0x02) != 0;
+    }
+
+    /**
+     * @return Whether the card and the exchange level support extended length APDUs.
+     */
+    boolean supportsExtendedLength() {
+        switch (descriptor.exchangeLevel()) {
+            case EXTENDED_APDU:
+                return true;
+            case TPDU:
+                return t1 != null;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return ICC status of the slot: {@link #ICC_ACTIVE}, {@link #ICC_INACTIVE} or
+     * {@link #ICC_ABSENT}.
+     */
+    int slotStatus() throws SmartCardReaderException {
+        header(PC_TO_RDR_GET_SLOT_STATUS, 0, 0, 0);
+        write(HEADER_LENGTH);
+        receive(RDR_TO_PC_SLOT_STATUS, true);
+        return response[7] & 0x03;
+    }
+
+    /**
+     * Activate the card and prepare the transmission protocol.
+     *
+     * @return ATR of the card.
+     */
+    byte[] powerOn() throws SmartCardReaderException {
+        if (descriptor.exchangeLevel() == CcidDescriptor.ExchangeLevel.CHARACTER) {
+            throw new SmartCardReaderException("Character level CCID readers are not supported");
+        }
+        t1 = null;
+        header(PC_TO_RDR_ICC_POWER_ON, 0, 0, 0);
+        write(HEADER_LENGTH);
+        int length = receive(RDR_TO_PC_DATA_BLOCK, false);
+        byte[] atr = Arrays.copyOfRange(response, HEADER_LENGTH, HEADER_LENGTH + length);
+        if (descriptor.exchangeLevel() == CcidDescriptor.ExchangeLevel.TPDU) {
+            Atr parameters = new Atr(atr);
+            if (!descriptor.autoParameters()) {
+                setParameters(parameters);
+            }
+            if (parameters.protocol == 1) {
+                t1 = new CcidT1(this::xfrBlock, parameters.ifsc);
+                t1.negotiateIfsd(descriptor.maxIfsd() > 0 ? descriptor.maxIfsd() : 254);
+            }
+        }
+        return atr;
+    }
+
+    void powerOff() throws SmartCardReaderException {
+        t1 = null;
+        header(PC_TO_RDR_ICC_POWER_OFF, 0, 0, 0);
+        write(HEADER_LENGTH);
+        receive(RDR_TO_PC_SLOT_STATUS, true);
+    }
+
+    /**
+     * Transmit an APDU at the reader's exchange level.
+     *
+     * @param apdu Buffer containing the APDU.
+     * @param length Length of the APDU.
+     * @param out Buffer receiving the response.
+     * @return Length of the response including SW1 and SW2.
+     */
+    int transmit(byte[] apdu, int length, byte[] out) throws SmartCardReaderException {
+        switch (descriptor.exchangeLevel()) {
+            case SHORT_APDU:
+            case EXTENDED_APDU:
+                return transmitApdu(apdu, length, out);
+            case TPDU:
+                if (t1 != null) {
+                    return t1.transmit(apdu, 0, length, out, 0);
+                }
+                return transmitTpdu(apdu, length, out);
+            default:
+                throw new SmartCardReaderException("Character level CCID readers are not supported");
+        }
+    }
+
+    /**
+     * Send an APDU as a T=0 TPDU: case 1 gets P3 of 0 and case 4 loses Le, the card
+     * answers 0x61XX and the response is read with GET RESPONSE.
+     */
+    private int transmitTpdu(byte[] apdu, int length, byte[] out) throws SmartCardReaderException {
+        if (length > 5 && apdu[4] == 0) {
+            throw new SmartCardReaderException("Extended length APDUs are not supported with T=0");
+        }
+        if (length == 4) {
+            header(PC_TO_RDR_XFR_BLOCK, 5, 0, 0);
+            System.arraycopy(apdu, 0, message, HEADER_LENGTH, 4);
+            message[HEADER_LENGTH + 4] = 0;
+            write(HEADER_LENGTH + 5);
+            return receiveBlock(out);
+        }
+        return xfrBlock(apdu, length == 6 + (apdu[4] & 0xFF) ? length - 1 : length, out);
+    }
+
+    private int transmitApdu(byte[] apdu, int length, byte[] out) throws SmartCardReaderException {
+        int maxData = message.length - HEADER_LENGTH;
+        int sent = 0;
+        while (true) {
+            int chunk = Math.min(maxData, length - sent);
+            boolean more = sent + chunk < length;
+            int chain;
+            if (sent == 0) {
+                chain = more ? CHAIN_BEGIN : 0;
+            } else {
+                chain = more ? CHAIN_CONTINUE : CHAIN_END;
+            }
+            header(PC_TO_RDR_XFR_BLOCK, chunk, 0, chain);
+            System.arraycopy(apdu, sent, message, HEADER_LENGTH, chunk);
+            write(HEADER_LENGTH + chunk);
+            sent += chunk;
+            if (!more) {
+                break;
+            }
+            receive(RDR_TO_PC_DATA_BLOCK, false);
+        }
+
+        int received = 0;
+        while (true) {
+            int dataLength = receive(RDR_TO_PC_DATA_BLOCK, false);
+            if (received + dataLength > out.length) {
+                throw new SmartCardReaderException("Response exceeds receive buffer");
+            }
+            System.arraycopy(response, HEADER_LENGTH, out, received, dataLength);
+            received += dataLength;
+            int responseChain = response[9] & 0xFF;
+            if (responseChain != CHAIN_BEGIN && responseChain != CHAIN_CONTINUE) {
+                return received;
+            }
+            header(PC_TO_RDR_XFR_BLOCK, 0, 0, CHAIN_EMPTY);
+            write(HEADER_LENGTH);
+        }
+    }
+
+    private int xfrBlock(byte[] data, int length, byte[] out) throws SmartCardReaderException {
+        return xfrBlock(data, length, 0, out);
+    }
+
+    /**
+     * Send one TPDU or T=1 block in a single XfrBlock.
+     *
+     * @param bwi Block waiting time multiplier of the transfer, 0 for the default.
+     * @return Length of the reply.
+     */
+    private int xfrBlock(byte[] data, int length, int bwi, byte[] out) throws SmartCardReaderException {
+        if (HEADER_LENGTH + length > message.length) {
+            throw new SmartCardReaderException("TPDU exceeds reader message length");
+        }
+        header(PC_TO_RDR_XFR_BLOCK, length, bwi, 0);
+        System.arraycopy(data, 0, message, HEADER_LENGTH, length);
+        write(HEADER_LENGTH + length);
+        return receiveBlock(out);
+    }
+
+    private int receiveBlock(byte[] out) throws SmartCardReaderException {
+        int dataLength = receive(RDR_TO_PC_DATA_BLOCK, false);
+        if (dataLength > out.length) {
+            throw new SmartCardReaderException("Response exceeds receive buffer");
+        }
+        System.arraycopy(response, HEADER_LENGTH, out, 0, dataLength);
+        return dataLength;
+    }
+
+    private void setParameters(Atr atr) throws SmartCardReaderException {
+        int length = atr.protocol == 1 ? 7 : 5;
+        header(PC_TO_RDR_SET_PARAMETERS, length, atr.protocol, 0);
+        message[HEADER_LENGTH] = (byte) atr.fiDi;
+        message[HEADER_LENGTH + 1] = (byte) (atr.protocol == 1 ? 0x10 : 0x00);
+        message[HEADER_LENGTH + 2] = (byte) atr.guardTime;
+        message[HEADER_LENGTH + 3] = (byte) (atr.protocol == 1 ? atr.waitingIntegers : 0x0A);
+        message[HEADER_LENGTH + 4] = 0;
+        if (atr.protocol == 1) {
+            message[HEADER_LENGTH + 5] = (byte) atr.ifsc;
+            message[HEADER_LENGTH + 6] = 0;
+        }
+        write(HEADER_LENGTH + length);
+        receive(RDR_TO_PC_PARAMETERS, false);
+    }
+
+    private void header(int type, int length, int param, int levelParameter) {
+        sequence = (sequence + 1) & 0xFF;
+        message[0] = (byte) type;
+        message[1] = (byte) length;
+        message[2] = (byte) (length >> 8);
+        message[3] = (byte) (length >> 16);
+        message[4] = (byte) (length >> 24);
+        message[5] = (byte) slot;
+        message[6] = (byte) sequence;
+        message[7] = (byte) param;
+        message[8] = (byte) levelParameter;
+        message[9] = (byte) (levelParameter >> 8);
+    }
+
+    private void write(int length) throws SmartCardReaderException {
+        try {
+            transport.write(message, length, TIMEOUT_MILLIS);
+        } catch (IOException e) {
+            throw new SmartCardReaderException(e);
+        }
+    }
+
+    /**
+     * Read the reply to the last command, skipping stale replies and time extensions.
+     *
+     * @param failureAllowed Whether a failed command status is returned instead of thrown.
+     * @return Data length of the reply.
+     */
+    private int receive(int type, boolean failureAllowed) throws SmartCardReaderException {
+        while (true) {
+            int length;
+            try {
+                length = transport.read(response, TIMEOUT_MILLIS);
+            } catch (IOException e) {
+                throw new SmartCardReaderException(e);
+            }
+            if (length < HEADER_LENGTH || response[5] != (byte) slot || response[6] != (byte) sequence) {
+                continue;
+            }
+            int commandStatus = (response[7] & 0xFF) >> 6;
+            if (commandStatus == TIME_EXTENSION) {
+                continue;
+            }
+            if ((response[0] & 0xFF) != type) {
+                throw new SmartCardReaderException(String.format(Locale.ROOT,
+                        "Unexpected CCID message %02X", response[0] & 0xFF));
+            }
+            if (commandStatus == COMMAND_FAILED && !failureAllowed) {
+                throw new SmartCardReaderException(String.format(Locale.ROOT,
+                        "CCID command failed, ICC status %d, error %02X",
+                        response[7] & 0x03, response[8] & 0xFF));
+            }
+            int dataLength = (response[1] & 0xFF) | (response[2] & 0xFF) << 8
+                    | (response[3] & 0xFF) << 16 | (response[4] & 0xFF) << 24;
+            if (dataLength < 0 || dataLength > length - HEADER_LENGTH) {
+                throw new SmartCardReaderException("Truncated CCID message");
+            }
+            return dataLength;
+        }
+    }
+
+    /**
+     * Transmission parameters from the ATR, defaults where the ATR does not set them.
+     */
+    static final class Atr {
+        int protocol;
+        int fiDi = 0x11;
+        int guardTime;
+        int waitingIntegers = 0x4D;
+        int ifsc = CcidT1.DEFAULT_IFSC;
+
+        Atr(byte[] atr) {
+            if (atr.length < 2) {
+                return;
+            }
+            int y = (atr[1] & 0xFF) >> 4;
+            int offset = 2;
+            boolean protocolSet = false;
+            int currentProtocol = 0;
+            for (int i = 1; offset <= atr.length; i++) {
+                if ((y & 0x1) != 0 && offset < atr.length) {
+                    int ta = atr[offset++] & 0xFF;
+                    if (i == 1) {
+                        fiDi = ta;
+                    } else if (i > 2 && currentProtocol == 1) {
+                        ifsc = ta;
+                    }
+                }
+                if ((y & 0x2) != 0 && offset < atr.length) {
+                    int tb = atr[offset++] & 0xFF;
+                    if (i > 2 && currentProtocol == 1) {
+                        waitingIntegers = tb;
+                    }
+                }
+                if ((y & 0x4) != 0 && offset < atr.length) {
+                    int tc = atr[offset++] & 0xFF;
+                    if (i == 1) {
+                        guardTime = tc;
+                    }
+                }
+                if ((y & 0x8) == 0 || offset >= atr.length) {
+                    return;
+                }
+                int td = atr[offset++] & 0xFF;
+                currentProtocol = td & 0x0F;
+                if (!protocolSet) {
+                    protocol = currentProtocol;
+                    protocolSet = true;
+                }
+                y = td >> 4;
+            }
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2017 - 2025 Riigi Infosüsteemi Amet
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package ee.ria.DigiDoc.smartcardreader.usb;
+
+import java.util.Locale;
+
+import ee.ria.DigiDoc.smartcardreader.SmartCardReaderException;
+
+/**
+ * Compact T=1 block transmission protocol (ISO/IEC 7816-3) for TPDU level CCID readers.
+ * <p>
+ * Supports chaining in both directions, waiting time extensions, information field size
+ * changes and retransmission after R-blocks. Uses NAD 0 and the LRC epilogue.
+ */
+final class CcidT1 {
+
+    /**
+     * Exchanges one block with the card.
+     */
+    interface BlockChannel {
+
+        /**
+         * @param block Buffer containing the block.
+         * @param length Length of the block.
+         * @param bwi Multiplier of the block waiting time for the reply, 0 for the
+         * default waiting time.
+         * @param reply Buffer receiving the reply block.
+         * @return Length of the reply block.
+         */
+        int exchange(byte[] block, int length, int bwi, byte[] reply) throws SmartCardReaderException;
+    }
+
+    static final int DEFAULT_IFSC = 32;
+
+    private static final int MAX_INF = 254;
+    private static final int MAX_RETRIES = 3;
+    private static final int NAD = 0;
+
+    private static final int PCB_MORE = 0x20;
+    private static final int PCB_R = 0x80;
+    private static final int PCB_R_ERROR = 0x01;
+    private static final int S_IFS_REQUEST = 0xC1;
+    private static final int S_IFS_RESPONSE = 0xE1;
+    private static final int S_ABORT_REQUEST = 0xC2;
+    private static final int S_WTX_REQUEST = 0xC3;
+    private static final int S_WTX_RESPONSE = 0xE3;
+
+    private final BlockChannel channel;
+    private final byte[] block = new byte[MAX_INF + 4];
+    private final byte[] control = new byte[5];
+    private final byte[] reply = new byte[MAX_INF + 4];
+    private int ifsc;
+    private int sendSequence;
+    private int receiveSequence;
+
+    CcidT1(BlockChannel channel, int ifsc) {
+        this.channel = channel;
+        this.ifsc = ifsc;
+    }
+
+    /**
+     * Announce the information field size the reader accepts from the card.
+     *
+     * @param ifsd Information field size, at most 254.
+     */
+    void negotiateIfsd(int ifsd) throws SmartCardReaderException {
+        int pcb = exchangeBlock(control, sBlock(S_IFS_REQUEST, Math.min(ifsd, MAX_INF)));
+        if (pcb != S_IFS_RESPONSE) {
+            throw new SmartCardReaderException("Card did not accept the T=1 information field size");
+        }
+    }
+
+    /**
+     * Send an APDU in I-blocks and receive the response.
+     *
+     * @return Length of the response written to out.
+     */
+    int transmit(byte[] apdu, int offset, int length, byte[] out, int outOffset)
+            throws SmartCardReaderException {
+        int sent = 0;
+        int pcb;
+        while (true) {
+            int chunk = Math.min(ifsc, length - sent);
+            boolean more = sent + chunk < length;
+            pcb = sendIBlock(iBlock(apdu, offset + sent, chunk, more));
+            sent += chunk;
+            if (!more) {
+                break;
+            }
+            if (!isRBlock(pcb)) {
+                throw new SmartCardReaderException("Card did not acknowledge chained T=1 block");
+            }
+        }
+
+        int received = 0;
+        while (true) {
+            if (!isIBlock(pcb) || ((pcb >> 6) & 1) != receiveSequence) {
+                throw new SmartCardReaderException(String.format(Locale.ROOT, "Unexpected T=1 block %02X", pcb));
+            }
+            int inf = reply[2] & 0xFF;
+            if (outOffset + received + inf > out.length) {
+                throw new SmartCardReaderException("T=1 response exceeds receive buffer");
+            }
+            System.arraycopy(reply, 3, out, outOffset + received, inf);
+            received += inf;
+            receiveSequence ^= 1;
+            if ((pcb & PCB_MORE) == 0) {
+                return received;
+            }
+            pcb = exchangeBlock(control, rBlock(0));
+        }
+    }
+
+    private int sendIBlock(int length) throws SmartCardReaderException {
+        for (int attempt = 0; ; attempt++) {
+            int pcb = exchangeBlock(block, length);
+            if (isRBlock(pcb) && ((pcb >> 4) & 1) == sendSequence) {
+                if (attempt >= MAX_RETRIES) {
+                    throw new SmartCardReaderException("T=1 block rejected by card");
+                }
+                continue;
+            }
+            sendSequence ^= 1;
+            return pcb;
+        }
+    }
+
+    /**
+     * Send a block and answer the S-block requests of the card.
+     *
+     * @return PCB of the reply, which is in {@link #reply}.
+     */
+    private int exchangeBlock(byte[] buffer, int length) throws SmartCardReaderException {
+        byte[] current = buffer;
+        int currentLength = length;
+        int bwi = 0;
+        for (int invalid = 0; ; ) {
+            int replyLength = channel.exchange(current, currentLength, bwi, reply);
+            bwi = 0;
+            if (!isValid(replyLength)) {
+                if (++invalid > MAX_RETRIES) {
+                    throw new SmartCardReaderException("Invalid T=1 block received");
+                }
+                current = control;
+                currentLength = rBlock(PCB_R_ERROR);
+                continue;
+            }
+            int pcb = reply[1] & 0xFF;
+            switch (pcb) {
+                case S_WTX_REQUEST:
+                    // The reader waits the extended time for the reply to the response
+                    bwi = reply[3] & 0xFF;
+                    current = control;
+                    currentLength = sBlock(S_WTX_RESPONSE, bwi);
+                    break;
+                case S_IFS_REQUEST:
+                    ifsc = reply[3] & 0xFF;
+                    current = control;
+                    currentLength = sBlock(S_IFS_RESPONSE, ifsc);
+                    break;
+                case S_ABORT_REQUEST:
+                    throw new SmartCardReaderException("T=1 transmission aborted by card");
+                default:
+                    return pcb;
+            }
+        }
+    }
+
+    private boolean isValid(int length) {
+        if (length < 4 || (reply[2] & 0xFF) != length - 4) {
+            return false;
+        }
+        return lrc(reply, length - 1) == reply[length - 1];
+    }
+
+    private int iBlock(byte[] data, int offset, int length, boolean more) {
+        block[0] = NAD;
+        block[1] = (byte) (sendSequence << 6 | (more ? PCB_MORE : 0));
+        block[2] = (byte) length;
+        System.arraycopy(data, offset, block, 3, length);
+        block[length + 3] = lrc(block, length + 3);
+        return length + 4;
+    }
+
+    private int rBlock(int error) {
+        control[0] = NAD;
+        control[1] = (byte) (PCB_R | receiveSequence << 4 | error);
+        control[2] = 0;
+        control[3] = lrc(control, 3);
+        return 4;
+    }
+
+    private int sBlock(int pcb, int value) {
+        control[0] = NAD;
+        control[1] = (byte) pcb;
+        control[2] = 1;
+        control[3] = (byte) value;
+        control[4] = lrc(control, 4);
+        return 5;
+    }
+
+    private static boolean isIBlock(int pcb) {
+        return (pcb & 0x80) == 0;
+    }
+
+    private static boolean isRBlock(int pcb) {
+        return (pcb & 0xC0) == PCB_R;
+    }
+
+    static byte lrc(byte[] data, int length) {
+        byte lrc = 0;
+        for (int i = 0; i < length; i++) {
+            lrc ^= data[i];
+        }
+        return lrc;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017 - 2025 Riigi Infosüsteemi Amet
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package ee.ria.DigiDoc.smartcardreader.usb;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+
+/**
+ * Bulk and interrupt pipes of a CCID reader, carrying complete CCID messages.
+ */
+interface CcidTransport extends AutoCloseable {
+
+    /**
+     * Write a message to the bulk-OUT endpoint.
+     *
+     * @param message Buffer containing the message.
+     * @param length Length of the message.
+     * @param timeoutMillis Time to wait for the transfer to complete.
+     * @throws IOException When the transfer fails.
+     */
+    void write(byte[] message, int length, int timeoutMillis) throws IOException;
+
+    /**
+     * Read the next message from the bulk-IN endpoint.
+     *
+     * @param buffer Buffer receiving the message, large enough for the reader's maximum
+     *               message length.
+     * @param timeoutMillis Time to wait for a message.
+     * @return Length of the message.
+     * @throws IOException When no message arrives in time or the transfer fails.
+     */
+    int read(byte[] buffer, int timeoutMillis) throws IOException;
+
+    /**
+     * Set the listener of interrupt-IN messages, null to stop listening.
+     */
+    void setInterruptListener(@Nullable InterruptListener listener);
+
+    /**
+     * @return Whether the reader reports slot changes on an interrupt endpoint.
+     */
+    boolean hasInterrupt();
+
+    @Override
+    void close();
+
+    /**
+     * Listener of messages from the interrupt-IN endpoint.
+     */
+    interface InterruptListener {
+
+        /**
+         * @param message Buffer containing the message, valid only during the call.
+         * @param length Length of the message.
+         */
+        void onInterrupt(byte[] message, int length);
+    }
+}
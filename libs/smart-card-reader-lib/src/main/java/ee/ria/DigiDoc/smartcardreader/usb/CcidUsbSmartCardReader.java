@@ -0,0 +1,207 @@
+/*
+ * Copyright 2017 - 2025 Riigi Infosüsteemi Amet
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package ee.ria.DigiDoc.smartcardreader.usb;
+
+import android.hardware.usb.UsbConstants;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbManager;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+
+import ee.ria.DigiDoc.smartcardreader.CommandApdu;
+import ee.ria.DigiDoc.smartcardreader.ResponseApdu;
+import ee.ria.DigiDoc.smartcardreader.SmartCardReaderException;
+import ee.ria.DigiDoc.utilsLib.logging.LoggingUtil;
+
+/**
+ * Driver for any USB CCID class reader, implemented directly on the USB host API.
+ * <p>
+ * Card insertion and removal are taken from NotifySlotChange messages on the interrupt
+ * endpoint, so {@link #connected()} talks to the reader only after a change. Readers
+ * without an interrupt endpoint are asked for the slot status on every check.
+ */
+public final class CcidUsbSmartCardReader extends UsbSmartCardReader {
+    private static final String TAG = CcidUsbSmartCardReader.class.getName();
+    private static final int SLOT = 0;
+
+    private final UsbManager usbManager;
+    @Nullable private CcidTransport transport;
+    @Nullable private volatile CcidProtocol protocol;
+    @Nullable private volatile CardStateListener cardStateListener;
+
+    /**
+     * ATR of the powered card, null when there is no active card.
+     */
+    @Nullable private volatile byte[] atr;
+    private volatile boolean cardChanged = true;
+
+    public CcidUsbSmartCardReader(UsbManager usbManager) {
+        this.usbManager = usbManager;
+    }
+
+    /**
+     * @return Factory creating a reader for every device with a CCID interface.
+     */
+    public static UsbSmartCardReaderFactory factory(UsbManager usbManager) {
+        CcidUsbSmartCardReader probe = new CcidUsbSmartCardReader(usbManager);
+        return new UsbSmartCardReaderFactory() {
+            @Override
+            public boolean supports(UsbDevice usbDevice) {
+                return probe.supports(usbDevice);
+            }
+
+            @Override
+            public UsbSmartCardReader create() {
+                return new CcidUsbSmartCardReader(usbManager);
+            }
+        };
+    }
+
+    @Override
+    public boolean supports(UsbDevice usbDevice) {
+        for (int i = 0; i < usbDevice.getInterfaceCount(); i++) {
+            if (usbDevice.getInterface(i).getInterfaceClass() == UsbConstants.USB_CLASS_CSCID) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized void open(UsbDevice usbDevice) {
+        if (transport != null) {
+            return;
+        }
+        try {
+            UsbCcidTransport usbTransport = UsbCcidTransport.open(usbManager, usbDevice);
+            open(usbTransport, usbTransport.descriptor());
+        } catch (IOException e) {
+            LoggingUtil.Companion.errorLog(TAG, "Opening CCID reader exception: " + e.getMessage(), e);
+        }
+    }
+
+    synchronized void open(CcidTransport transport, CcidDescriptor descriptor) {
+        this.transport = transport;
+        protocol = new CcidProtocol(transport, descriptor, SLOT);
+        cardChanged = true;
+        transport.setInterruptListener((message, length) -> {
+            if (CcidProtocol.isSlotChange(message, length, SLOT)) {
+                cardChanged = true;
+                CardStateListener listener = cardStateListener;
+                if (listener != null) {
+                    listener.onCardStateChanged();
+                }
+            }
+        });
+    }
+
+    /**
+     * Slot changes are reported only by readers with an interrupt endpoint.
+     */
+    @Override
+    public synchronized boolean reportsCardState() {
+        return transport != null && transport.hasInterrupt();
+    }
+
+    @Override
+    public void setCardStateListener(@Nullable CardStateListener listener) {
+        cardStateListener = listener;
+    }
+
+    @Override
+    public synchronized void close() {
+        cardStateListener = null;
+        CcidProtocol current = protocol;
+        if (current != null && atr != null) {
+            try {
+                current.powerOff();
+            } catch (SmartCardReaderException e) {
+                LoggingUtil.Companion.debugLog(TAG, "Powering off CCID card failed: " + e.getMessage(), null);
+            }
+        }
+        if (transport != null) {
+            transport.close();
+            transport = null;
+        }
+        protocol = null;
+        atr = null;
+        releaseReceiveBuffer();
+    }
+
+    /**
+     * Power on a newly inserted card. Without a slot change since the last check, the
+     * cached state is returned when the reader reports changes on the interrupt endpoint.
+     * A failed check is repeated on the next call.
+     */
+    @Override
+    public synchronized boolean connected() {
+        CcidProtocol current = protocol;
+        if (current == null || transport == null) {
+            return false;
+        }
+        if (!cardChanged && transport.hasInterrupt()) {
+            return atr != null;
+        }
+        cardChanged = false;
+        try {
+            int status = current.slotStatus();
+            if (status == CcidProtocol.ICC_ABSENT) {
+                atr = null;
+            } else if (status != CcidProtocol.ICC_ACTIVE || atr == null) {
+                atr = current.powerOn();
+            }
+        } catch (SmartCardReaderException e) {
+            LoggingUtil.Companion.errorLog(TAG, "Connecting to CCID reader exception: " + e.getMessage(), e);
+            atr = null;
+            cardChanged = true;
+        }
+        return atr != null;
+    }
+
+    @Override
+    public byte[] atr() {
+        return atr;
+    }
+
+    @Override
+    protected boolean supportsExtendedLength() {
+        CcidProtocol current = protocol;
+        return current != null && atr != null && current.supportsExtendedLength();
+    }
+
+    @Override
+    protected byte[] transmit(byte[] apdu) throws SmartCardReaderException {
+        return transceive(CommandApdu.wrap(apdu), new ResponseApdu()).toByteArray();
+    }
+
+    @Override
+    protected ResponseApdu transceive(CommandApdu command, ResponseApdu response)
+            throws SmartCardReaderException {
+        CcidProtocol current = protocol;
+        if (current == null || atr == null) {
+            throw new SmartCardReaderException("Card is not connected");
+        }
+        byte[] recv = receiveBuffer();
+        int length = current.transmit(command.array(), command.length(), recv);
+        return response.set(recv, 0, length);
+    }
+}
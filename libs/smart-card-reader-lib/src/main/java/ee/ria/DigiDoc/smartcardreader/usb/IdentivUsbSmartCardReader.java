@@ -20,28 +20,82 @@
 package ee.ria.DigiDoc.smartcardreader.usb;
 
 import static com.identive.libs.WinDefs.SCARD_LEAVE_CARD;
+import static com.identive.libs.WinDefs.SCARD_PROTOCOL_T1;
 import static com.identive.libs.WinDefs.SCARD_PROTOCOL_TX;
 import static com.identive.libs.WinDefs.SCARD_SHARE_EXCLUSIVE;
 import static com.identive.libs.WinDefs.SCARD_SPECIFIC;
+import static com.identive.libs.WinDefs.SCARD_STATE_CHANGED;
+import static com.identive.libs.WinDefs.SCARD_STATE_EMPTY;
+import static com.identive.libs.WinDefs.SCARD_STATE_PRESENT;
+import static com.identive.libs.WinDefs.SCARD_STATE_UNAWARE;
+import static com.identive.libs.WinDefs.SCARD_S_SUCCESS;
 
 import android.content.Context;
 import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbManager;
 
+import androidx.annotation.Nullable;
+
 import com.identive.libs.SCard;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+import ee.ria.DigiDoc.smartcardreader.CommandApdu;
+import ee.ria.DigiDoc.smartcardreader.ResponseApdu;
 import ee.ria.DigiDoc.smartcardreader.SmartCardReaderException;
+import ee.ria.DigiDoc.utilsLib.logging.LoggingUtil;
 
 public final class IdentivUsbSmartCardReader extends UsbSmartCardReader {
+    private static final String TAG = IdentivUsbSmartCardReader.class.getName();
 
     private static final int VENDOR_ID = 1254;
 
+    /**
+     * Time SCardGetStatusChange blocks before the monitor checks whether it was stopped.
+     */
+    private static final long STATUS_CHANGE_TIMEOUT_MILLIS = 1000;
+    /**
+     * The library returns PC/SC error codes sign-extended from 32 bits.
+     */
+    private static final long SCARD_E_TIMEOUT = (long) (int) 0x8010000A;
+
+    /**
+     * PC/SC reader names used by open instances, so that every attached device drives a
+     * different reader.
+     */
+    private static final Set<String> CLAIMED_READERS = ConcurrentHashMap.newKeySet();
+
     private final Context context;
     private final UsbManager usbManager;
     private final SCard sCard;
+    private SCard.SCardIOBuffer io;
+    @Nullable private Thread monitor;
+    @Nullable private CardStateListener cardStateListener;
+
+    /**
+     * PC/SC context established in {@link #open(UsbDevice)} and released in
+     * {@link #close()}. The reader name of the device is looked up until the reader is
+     * listed.
+     */
+    private boolean contextEstablished;
+    @Nullable private UsbDevice usbDevice;
+    @Nullable private volatile String readerName;
+    /**
+     * Whether the card handle is connected, it is reused by all transmits until the card
+     * changes.
+     */
+    private volatile boolean cardConnected;
+    /**
+     * Protocol of the connected card, read from SCardStatus when the handle is checked.
+     */
+    private volatile int protocol;
+    /**
+     * Set by card state events, the next {@link #connected()} reconnects the card.
+     */
+    private volatile boolean cardChanged;
 
     public IdentivUsbSmartCardReader(Context context, UsbManager usbManager) {
         this.context = context;
@@ -49,44 +103,226 @@ public final class IdentivUsbSmartCardReader extends UsbSmartCardReader {
         sCard = new SCard();
     }
 
+    /**
+     * @return Factory creating a reader for every supported Identiv device.
+     */
+    public static UsbSmartCardReaderFactory factory(Context context, UsbManager usbManager) {
+        IdentivUsbSmartCardReader probe = new IdentivUsbSmartCardReader(context, usbManager);
+        return new UsbSmartCardReaderFactory() {
+            @Override
+            public boolean supports(UsbDevice usbDevice) {
+                return probe.supports(usbDevice);
+            }
+
+            @Override
+            public UsbSmartCardReader create() {
+                return new IdentivUsbSmartCardReader(context, usbManager);
+            }
+        };
+    }
+
     @Override
     public boolean supports(UsbDevice usbDevice) {
-        if (!usbManager.hasPermission(usbDevice) && usbDevice.getVendorId() == VENDOR_ID) {
-            return true;
+        return usbDevice.getVendorId() == VENDOR_ID;
+    }
+
+    @Override
+    public synchronized void open(UsbDevice usbDevice) {
+        if (contextEstablished) {
+            return;
         }
-        open(usbDevice);
+        long result = sCard.SCardEstablishContext(context);
+        if (result != SCARD_S_SUCCESS) {
+            LoggingUtil.Companion.errorLog(TAG, "Failed to establish context: " + Long.toHexString(result), null);
+            return;
+        }
+        contextEstablished = true;
+        this.usbDevice = usbDevice;
+        readerName = findReader(usbDevice);
+    }
+
+    /**
+     * Find the PC/SC reader of the device among the readers not used by other instances:
+     * the reader whose name contains the serial number of the device, then its product
+     * name, otherwise the first free reader.
+     */
+    @Nullable
+    private String findReader(UsbDevice usbDevice) {
         ArrayList<String> readers = new ArrayList<>();
         sCard.SCardListReaders(context, readers);
-        return !readers.isEmpty();
+        String serialNumber;
+        try {
+            serialNumber = usbDevice.getSerialNumber();
+        } catch (SecurityException e) {
+            serialNumber = null;
+        }
+        for (String key : new String[] {serialNumber, usbDevice.getProductName(), ""}) {
+            if (key == null) {
+                continue;
+            }
+            for (String name : readers) {
+                if (name.contains(key) && CLAIMED_READERS.add(name)) {
+                    return name;
+                }
+            }
+        }
+        return null;
     }
 
     @Override
-    public void open(UsbDevice usbDevice) {
-        sCard.SCardEstablishContext(context);
+    public boolean reportsCardState() {
+        return true;
+    }
+
+    /**
+     * Card state is monitored on a separate thread with its own PC/SC context, which
+     * blocks in SCardGetStatusChange until the state of the device's reader changes. The
+     * monitor starts once the reader has been found.
+     */
+    @Override
+    public synchronized void setCardStateListener(@Nullable CardStateListener listener) {
+        if (monitor != null) {
+            monitor.interrupt();
+            monitor = null;
+        }
+        cardStateListener = listener;
+        startMonitor();
+    }
+
+    private void startMonitor() {
+        CardStateListener listener = cardStateListener;
+        String name = readerName;
+        if (listener == null || name == null || monitor != null) {
+            return;
+        }
+        monitor = new Thread(() -> monitor(name, () -> {
+            cardChanged = true;
+            listener.onCardStateChanged();
+        }), "identiv-card-monitor");
+        monitor.setDaemon(true);
+        monitor.start();
+    }
+
+    private void monitor(String name, CardStateListener listener) {
+        SCard monitorCard = new SCard();
+        monitorCard.SCardEstablishContext(context);
+        try {
+            SCard.SCARD_READERSTATE[] states = new SCard.SCARD_READERSTATE[] {monitorCard.new SCARD_READERSTATE()};
+            states[0].setSzReader(name);
+            states[0].setnCurrentState(SCARD_STATE_UNAWARE);
+            byte[] previousAtr = null;
+            while (!Thread.currentThread().isInterrupted()) {
+                long result = monitorCard.SCardGetStatusChange(STATUS_CHANGE_TIMEOUT_MILLIS, states, states.length);
+                if (result == SCARD_S_SUCCESS) {
+                    int currentState = states[0].getnCurrentState();
+                    int eventState = states[0].getnEventState();
+                    if ((eventState & SCARD_STATE_CHANGED) != 0) {
+                        states[0].setnCurrentState(eventState & ~SCARD_STATE_CHANGED);
+                        byte[] atr = atr(states[0]);
+                        // Our own connect and disconnect only change the EXCLUSIVE and INUSE bits
+                        boolean changed = isCardChange(currentState, eventState)
+                                || !Arrays.equals(atr, previousAtr);
+                        previousAtr = atr;
+                        if (changed && !Thread.currentThread().isInterrupted()) {
+                            listener.onCardStateChanged();
+                        }
+                    }
+                } else if (!isTimeout(result)) {
+                    LoggingUtil.Companion.debugLog(TAG, "Card monitor stopped: " + Long.toHexString(result), null);
+                    return;
+                }
+            }
+        } finally {
+            monitorCard.SCardReleaseContext();
+        }
+    }
+
+    static boolean isTimeout(long result) {
+        return result == SCARD_E_TIMEOUT;
+    }
+
+    /**
+     * @return Whether the card was inserted or removed between the states.
+     */
+    static boolean isCardChange(int currentState, int eventState) {
+        int presence = SCARD_STATE_PRESENT | SCARD_STATE_EMPTY;
+        return (currentState & presence) != (eventState & presence);
+    }
+
+    private static byte[] atr(SCard.SCARD_READERSTATE state) {
+        byte[] atr = state.getabyAtr();
+        if (atr == null) {
+            return new byte[0];
+        }
+        return Arrays.copyOf(atr, Math.max(0, Math.min(state.getnAtr(), atr.length)));
     }
 
     @Override
-    public void close() {
-        sCard.SCardDisconnect(SCARD_LEAVE_CARD);
-        sCard.SCardReleaseContext();
+    public synchronized void close() {
+        setCardStateListener(null);
+        disconnect();
+        if (contextEstablished) {
+            sCard.SCardReleaseContext();
+            contextEstablished = false;
+        }
+        String name = readerName;
+        if (name != null) {
+            CLAIMED_READERS.remove(name);
+            readerName = null;
+        }
+        usbDevice = null;
+        releaseReceiveBuffer();
+        io = null;
     }
 
+    /**
+     * Connect the card only when there is no handle yet or a card state event reported
+     * a change, otherwise the existing handle is checked with SCardStatus. The reader of
+     * the device is looked up again while it has not been listed.
+     */
     @Override
-    public boolean connected() {
-        sCard.SCardEstablishContext(context);
+    public synchronized boolean connected() {
+        if (!contextEstablished || usbDevice == null) {
+            return false;
+        }
+        String name = readerName;
+        if (name == null) {
+            name = findReader(usbDevice);
+            if (name == null) {
+                return false;
+            }
+            readerName = name;
+            startMonitor();
+        }
+        if (cardChanged) {
+            cardChanged = false;
+            disconnect();
+        }
+        if (cardConnected) {
+            if (cardSpecific()) {
+                return true;
+            }
+            disconnect();
+        }
+        cardConnected = sCard.SCardConnect(name, SCARD_SHARE_EXCLUSIVE, (int) SCARD_PROTOCOL_TX)
+                == SCARD_S_SUCCESS;
+        return cardConnected && cardSpecific();
+    }
 
+    private boolean cardSpecific() {
         SCard.SCardState state = sCard.new SCardState();
-        sCard.SCardStatus(state);
-        if (state.getnState() == SCARD_SPECIFIC) {
-            return true;
+        if (sCard.SCardStatus(state) != SCARD_S_SUCCESS || state.getnState() != SCARD_SPECIFIC) {
+            return false;
         }
+        protocol = state.getnProtocol();
+        return true;
+    }
 
-        ArrayList<String> readers = new ArrayList<>();
-        sCard.SCardListReaders(context, readers);
-        if (!readers.isEmpty()) {
-            sCard.SCardConnect(readers.get(0), SCARD_SHARE_EXCLUSIVE, (int) SCARD_PROTOCOL_TX);
+    private void disconnect() {
+        if (cardConnected) {
+            sCard.SCardDisconnect(SCARD_LEAVE_CARD);
+            cardConnected = false;
         }
-        return false;
     }
 
     @Override
@@ -96,26 +332,34 @@ public final class IdentivUsbSmartCardReader extends UsbSmartCardReader {
         return Arrays.copyOf(state.getAbyATR(), state.getnATRlen());
     }
 
+    @Override
+    protected boolean supportsExtendedLength() {
+        return cardConnected && protocol == SCARD_PROTOCOL_T1;
+    }
+
     @Override
     protected byte[] transmit(byte[] apdu) throws SmartCardReaderException {
-        SCard.SCardIOBuffer io = sCard.new SCardIOBuffer();
-        io.setAbyInBuffer(apdu);
-        io.setnInBufferSize(apdu.length);
-        io.setAbyOutBuffer(new byte[0x8000]);
-        io.setnOutBufferSize(0x8000);
+        return transceive(CommandApdu.wrap(apdu), new ResponseApdu()).toByteArray();
+    }
+
+    @Override
+    protected ResponseApdu transceive(CommandApdu command, ResponseApdu response)
+            throws SmartCardReaderException {
+        if (!cardConnected) {
+            throw new SmartCardReaderException("Card is not connected");
+        }
+        if (io == null) {
+            io = sCard.new SCardIOBuffer();
+        }
+        byte[] recv = receiveBuffer();
+        io.setAbyOutBuffer(recv);
+        io.setnOutBufferSize(recv.length);
+        io.setAbyInBuffer(command.array());
+        io.setnInBufferSize(command.length());
         sCard.SCardTransmit(io);
         if (io.getnBytesReturned() == 0) {
             throw new SmartCardReaderException("Failed to send apdu");
         }
-        String rstr = "";
-        for (int k = 0; k < io.getnBytesReturned(); k++) {
-            int temp = io.getAbyOutBuffer()[k] & 0xFF;
-            if (temp < 16) {
-                rstr = rstr.toUpperCase() + "0" + Integer.toHexString(io.getAbyOutBuffer()[k]);
-            } else {
-                rstr = rstr.toUpperCase() + Integer.toHexString(temp);
-            }
-        }
-        return Arrays.copyOf(io.getAbyOutBuffer(), io.getnBytesReturned());
+        return response.set(recv, 0, io.getnBytesReturned());
     }
 }
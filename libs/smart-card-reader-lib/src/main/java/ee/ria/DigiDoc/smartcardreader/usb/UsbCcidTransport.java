@@ -0,0 +1,249 @@
+/*
+ * Copyright 2017 - 2025 Riigi Infosüsteemi Amet
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package ee.ria.DigiDoc.smartcardreader.usb;
+
+import android.hardware.usb.UsbConstants;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbInterface;
+import android.hardware.usb.UsbManager;
+import android.hardware.usb.UsbRequest;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import ee.ria.DigiDoc.utilsLib.logging.LoggingUtil;
+
+/**
+ * CCID transport on a {@link UsbDeviceConnection}.
+ * <p>
+ * Bulk-IN transfers are queued as {@link UsbRequest}s ahead of time, so the reply to a
+ * command is received into an already posted buffer. One thread reaps completed requests:
+ * bulk-IN replies are handed to {@link #read(byte[], int)} and interrupt-IN messages to
+ * the interrupt listener, after which the request is queued again.
+ */
+final class UsbCcidTransport implements CcidTransport {
+    private static final String TAG = UsbCcidTransport.class.getName();
+
+    private static final int QUEUED_READS = 2;
+    private static final int INTERRUPT_LENGTH = 64;
+    /**
+     * Time requestWait blocks before the reaper checks whether the transport was closed.
+     */
+    private static final long REQUEST_WAIT_MILLIS = 1000;
+
+    private final UsbDeviceConnection connection;
+    private final UsbInterface usbInterface;
+    private final UsbEndpoint bulkOut;
+    private final UsbRequest[] bulkIn;
+    @Nullable private final UsbRequest interrupt;
+    private final CcidDescriptor descriptor;
+    private final BlockingQueue<UsbRequest> completed = new LinkedBlockingQueue<>();
+    private final Thread reaper;
+    private volatile boolean closed;
+    @Nullable private volatile InterruptListener interruptListener;
+
+    private UsbCcidTransport(UsbDeviceConnection connection, UsbInterface usbInterface,
+                             CcidDescriptor descriptor) throws IOException {
+        this.connection = connection;
+        this.usbInterface = usbInterface;
+        this.descriptor = descriptor;
+        UsbEndpoint out = null;
+        UsbEndpoint in = null;
+        UsbEndpoint interruptIn = null;
+        for (int i = 0; i < usbInterface.getEndpointCount(); i++) {
+            UsbEndpoint endpoint = usbInterface.getEndpoint(i);
+            if (endpoint.getType() == UsbConstants.USB_ENDPOINT_XFER_BULK) {
+                if (endpoint.getDirection() == UsbConstants.USB_DIR_OUT) {
+                    out = endpoint;
+                } else {
+                    in = endpoint;
+                }
+            } else if (endpoint.getType() == UsbConstants.USB_ENDPOINT_XFER_INT
+                    && endpoint.getDirection() == UsbConstants.USB_DIR_IN) {
+                interruptIn = endpoint;
+            }
+        }
+        if (out == null || in == null) {
+            throw new IOException("CCID interface has no bulk endpoints");
+        }
+        bulkOut = out;
+        int length = Math.max(descriptor.maxMessageLength(), CcidProtocol.HEADER_LENGTH + 261);
+        bulkIn = new UsbRequest[QUEUED_READS];
+        for (int i = 0; i < bulkIn.length; i++) {
+            bulkIn[i] = request(in, length);
+        }
+        interrupt = interruptIn == null ? null : request(interruptIn, INTERRUPT_LENGTH);
+        reaper = new Thread(this::reap, "ccid-usb-reaper");
+        reaper.setDaemon(true);
+        reaper.start();
+    }
+
+    /**
+     * Open the device and claim its CCID interface.
+     *
+     * @throws IOException When the device can't be opened or has no CCID interface.
+     */
+    static UsbCcidTransport open(UsbManager usbManager, UsbDevice usbDevice) throws IOException {
+        UsbInterface usbInterface = null;
+        for (int i = 0; i < usbDevice.getInterfaceCount(); i++) {
+            if (usbDevice.getInterface(i).getInterfaceClass() == UsbConstants.USB_CLASS_CSCID) {
+                usbInterface = usbDevice.getInterface(i);
+                break;
+            }
+        }
+        if (usbInterface == null) {
+            throw new IOException("Device has no CCID interface");
+        }
+        UsbDeviceConnection connection = usbManager.openDevice(usbDevice);
+        if (connection == null) {
+            throw new IOException("Failed to open USB device");
+        }
+        try {
+            CcidDescriptor descriptor = CcidDescriptor.parse(connection.getRawDescriptors());
+            if (descriptor == null) {
+                throw new IOException("Device has no CCID class descriptor");
+            }
+            if (!connection.claimInterface(usbInterface, true)) {
+                throw new IOException("Failed to claim CCID interface");
+            }
+            return new UsbCcidTransport(connection, usbInterface, descriptor);
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    private UsbRequest request(UsbEndpoint endpoint, int length) throws IOException {
+        UsbRequest request = new UsbRequest();
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        if (!request.initialize(connection, endpoint) || !request.queue(buffer)) {
+            request.close();
+            throw new IOException("Failed to queue USB request");
+        }
+        request.setClientData(buffer);
+        return request;
+    }
+
+    CcidDescriptor descriptor() {
+        return descriptor;
+    }
+
+    private void reap() {
+        while (!closed) {
+            UsbRequest request;
+            try {
+                request = connection.requestWait(REQUEST_WAIT_MILLIS);
+            } catch (TimeoutException e) {
+                continue;
+            }
+            if (request == null) {
+                if (!closed) {
+                    LoggingUtil.Companion.errorLog(TAG, "USB request wait failed", null);
+                }
+                return;
+            }
+            if (request == interrupt) {
+                ByteBuffer buffer = (ByteBuffer) request.getClientData();
+                InterruptListener listener = interruptListener;
+                if (listener != null) {
+                    listener.onInterrupt(buffer.array(), buffer.position());
+                }
+                buffer.clear();
+                if (!closed) {
+                    request.queue(buffer);
+                }
+            } else {
+                completed.offer(request);
+            }
+        }
+    }
+
+    @Override
+    public void write(byte[] message, int length, int timeoutMillis) throws IOException {
+        if (connection.bulkTransfer(bulkOut, message, length, timeoutMillis) != length) {
+            throw new IOException("CCID bulk-OUT transfer failed");
+        }
+    }
+
+    @Override
+    public int read(byte[] buffer, int timeoutMillis) throws IOException {
+        UsbRequest request;
+        try {
+            request = completed.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for CCID reply");
+        }
+        if (request == null) {
+            throw new IOException("Timed out waiting for CCID reply");
+        }
+        ByteBuffer received = (ByteBuffer) request.getClientData();
+        int length = Math.min(received.position(), buffer.length);
+        System.arraycopy(received.array(), 0, buffer, 0, length);
+        received.clear();
+        if (!request.queue(received)) {
+            throw new IOException("Failed to queue USB request");
+        }
+        return length;
+    }
+
+    @Override
+    public void setInterruptListener(@Nullable InterruptListener listener) {
+        interruptListener = listener;
+    }
+
+    @Override
+    public boolean hasInterrupt() {
+        return interrupt != null;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        interruptListener = null;
+        reaper.interrupt();
+        for (UsbRequest request : bulkIn) {
+            request.cancel();
+        }
+        if (interrupt != null) {
+            interrupt.cancel();
+        }
+        connection.releaseInterface(usbInterface);
+        connection.close();
+        for (UsbRequest request : bulkIn) {
+            request.close();
+        }
+        if (interrupt != null) {
+            interrupt.close();
+        }
+    }
+}
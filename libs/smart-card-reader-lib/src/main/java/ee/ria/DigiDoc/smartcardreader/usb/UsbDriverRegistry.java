@@ -0,0 +1,219 @@
+/*
+ * Copyright 2017 - 2025 Riigi Infosüsteemi Amet
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package ee.ria.DigiDoc.smartcardreader.usb;
+
+import android.content.Context;
+import android.hardware.usb.UsbConstants;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbManager;
+
+import androidx.annotation.Nullable;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Selects the reader driver of a USB device by vendor and product ID.
+ * <p>
+ * Drivers are looked up by vendor and product ID, then by vendor ID, then by interface
+ * class, for example CCID for class drivers. A vendor can instead have a probing factory,
+ * so that its unsupported products fall through to the interface class drivers. Other
+ * probing factories are consulted last. Drivers
+ * are registered as lambdas, so a driver class and its vendor library are loaded only
+ * when a matching device is attached.
+ */
+public final class UsbDriverRegistry {
+
+    /**
+     * USB interface class of CCID smart card readers.
+     */
+    public static final int CCID_INTERFACE_CLASS = UsbConstants.USB_CLASS_CSCID;
+
+    private static final int ANY_PRODUCT = -1;
+
+    private static final int ACS_VENDOR_ID = 0x072F;
+    private static final int IDENTIV_VENDOR_ID = 0x04E6;
+
+    private final ImmutableMap<Long, Driver> byId;
+    private final ImmutableMap<Integer, UsbSmartCardReaderFactory> byVendorProbe;
+    private final ImmutableMap<Integer, Driver> byInterfaceClass;
+    private final ImmutableList<UsbSmartCardReaderFactory> probes;
+
+    private UsbDriverRegistry(Map<Long, Driver> byId, Map<Integer, UsbSmartCardReaderFactory> byVendorProbe,
+                              Map<Integer, Driver> byInterfaceClass,
+                              ImmutableList<UsbSmartCardReaderFactory> probes) {
+        this.byId = ImmutableMap.copyOf(byId);
+        this.byVendorProbe = ImmutableMap.copyOf(byVendorProbe);
+        this.byInterfaceClass = ImmutableMap.copyOf(byInterfaceClass);
+        this.probes = probes;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return Registry of the bundled ACS and Identiv drivers, other CCID class readers
+     * and ACS products not supported by the ACS library use the generic CCID driver.
+     */
+    public static UsbDriverRegistry defaults(Context context, UsbManager usbManager) {
+        return builder()
+                .probe(ACS_VENDOR_ID, lazy(Suppliers.memoize(() -> AcsUsbSmartCardReader.factory(usbManager))))
+                .register(IDENTIV_VENDOR_ID, () -> new IdentivUsbSmartCardReader(context, usbManager))
+                .registerInterfaceClass(CCID_INTERFACE_CLASS, () -> new CcidUsbSmartCardReader(usbManager))
+                .build();
+    }
+
+    /**
+     * @return Driver of the device, null when the device is not supported.
+     */
+    @Nullable
+    public Driver driver(UsbDevice usbDevice) {
+        int[] interfaceClasses = new int[usbDevice.getInterfaceCount()];
+        for (int i = 0; i < interfaceClasses.length; i++) {
+            interfaceClasses[i] = usbDevice.getInterface(i).getInterfaceClass();
+        }
+        Driver driver = driver(usbDevice.getVendorId(), usbDevice.getProductId(), interfaceClasses, usbDevice);
+        if (driver != null) {
+            return driver;
+        }
+        for (UsbSmartCardReaderFactory probe : probes) {
+            if (probe.supports(usbDevice)) {
+                return probe::create;
+            }
+        }
+        return null;
+    }
+
+    @Nullable
+    Driver driver(int vendorId, int productId, int[] interfaceClasses) {
+        return driver(vendorId, productId, interfaceClasses, null);
+    }
+
+    @Nullable
+    Driver driver(int vendorId, int productId, int[] interfaceClasses, @Nullable UsbDevice usbDevice) {
+        Driver driver = byId.get(key(vendorId, productId));
+        if (driver == null) {
+            driver = byId.get(key(vendorId, ANY_PRODUCT));
+        }
+        UsbSmartCardReaderFactory vendorProbe = byVendorProbe.get(vendorId);
+        if (driver == null && vendorProbe != null && vendorProbe.supports(usbDevice)) {
+            driver = vendorProbe::create;
+        }
+        for (int i = 0; driver == null && i < interfaceClasses.length; i++) {
+            driver = byInterfaceClass.get(interfaceClasses[i]);
+        }
+        return driver;
+    }
+
+    /**
+     * Factory creating the probing factory on first use, so that the vendor library is
+     * loaded only when a device of the vendor is attached.
+     */
+    private static UsbSmartCardReaderFactory lazy(Supplier<UsbSmartCardReaderFactory> factory) {
+        return new UsbSmartCardReaderFactory() {
+            @Override
+            public boolean supports(UsbDevice usbDevice) {
+                return factory.get().supports(usbDevice);
+            }
+
+            @Override
+            public UsbSmartCardReader create() {
+                return factory.get().create();
+            }
+        };
+    }
+
+    private static long key(int vendorId, int productId) {
+        return ((long) vendorId << 32) | (productId & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Creates the reader of a matched device.
+     */
+    public interface Driver {
+
+        /**
+         * @return New reader, not yet opened.
+         */
+        UsbSmartCardReader create();
+    }
+
+    public static final class Builder {
+        private final Map<Long, Driver> byId = new HashMap<>();
+        private final Map<Integer, UsbSmartCardReaderFactory> byVendorProbe = new HashMap<>();
+        private final Map<Integer, Driver> byInterfaceClass = new HashMap<>();
+        private final ImmutableList.Builder<UsbSmartCardReaderFactory> probes = ImmutableList.builder();
+
+        private Builder() {
+        }
+
+        /**
+         * Register driver for all products of the vendor.
+         */
+        public Builder register(int vendorId, Driver driver) {
+            return register(vendorId, ANY_PRODUCT, driver);
+        }
+
+        /**
+         * Register driver for a single product, takes precedence over the vendor driver.
+         */
+        public Builder register(int vendorId, int productId, Driver driver) {
+            byId.put(key(vendorId, productId), driver);
+            return this;
+        }
+
+        /**
+         * Register driver for devices with an interface of the class, used when no vendor
+         * or product driver matches.
+         */
+        public Builder registerInterfaceClass(int interfaceClass, Driver driver) {
+            byInterfaceClass.put(interfaceClass, driver);
+            return this;
+        }
+
+        /**
+         * Register factory that decides support of the vendor's devices by probing them,
+         * consulted after the product and vendor drivers and before the interface class
+         * drivers.
+         */
+        public Builder probe(int vendorId, UsbSmartCardReaderFactory factory) {
+            byVendorProbe.put(vendorId, factory);
+            return this;
+        }
+
+        /**
+         * Register factory that decides support by probing the device, consulted last.
+         */
+        public Builder probe(UsbSmartCardReaderFactory factory) {
+            probes.add(factory);
+            return this;
+        }
+
+        public UsbDriverRegistry build() {
+            return new UsbDriverRegistry(byId, byVendorProbe, byInterfaceClass, probes.build());
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2017 - 2025 Riigi Infosüsteemi Amet
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package ee.ria.DigiDoc.smartcardreader.usb;
+
+import android.hardware.usb.UsbDevice;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import ee.ria.DigiDoc.smartcardreader.CardExecutor;
+import ee.ria.DigiDoc.smartcardreader.SmartCardReader;
+import ee.ria.DigiDoc.smartcardreader.SmartCardReaderStatus;
+import ee.ria.DigiDoc.utilsLib.logging.LoggingUtil;
+import io.reactivex.rxjava3.core.Observable;
+
+/**
+ * Attached USB reader with its own status stream, see
+ * {@link UsbSmartCardReaderManager#readers()}.
+ * <p>
+ * Every reader has its own {@link CardExecutor}, so that token operations on cards in
+ * different readers run in parallel.
+ */
+public final class UsbReaderState {
+    private static final String TAG = UsbReaderState.class.getName();
+
+    /**
+     * Interval of checking the card in readers without card state events.
+     */
+    private static final long CARD_STATE_POLL_MILLIS = 2500;
+
+    private final UsbDevice device;
+    private final UsbSmartCardReader reader;
+    private final Observable<SmartCardReaderStatus> status;
+    private volatile SmartCardReaderStatus currentStatus = SmartCardReaderStatus.READER_DETECTED;
+    @Nullable private CardExecutor executor;
+    private boolean closed;
+
+    UsbReaderState(UsbDevice device, UsbSmartCardReader reader) {
+        this.device = device;
+        this.reader = reader;
+        Observable<Boolean> changes = Observable
+                .create(emitter -> {
+                    reader.setCardStateListener(() -> emitter.onNext(true));
+                    emitter.setCancellable(() -> reader.setCardStateListener(null));
+                    emitter.onNext(true);
+                });
+        if (!reader.reportsCardState()) {
+            changes = changes.mergeWith(Observable
+                    .interval(CARD_STATE_POLL_MILLIS, TimeUnit.MILLISECONDS)
+                    .map(tick -> true));
+        }
+        this.status = changes
+                .map(changed -> connected(reader)
+                        ? SmartCardReaderStatus.CARD_DETECTED : SmartCardReaderStatus.READER_DETECTED)
+                .distinctUntilChanged()
+                .doOnNext(value -> currentStatus = value)
+                .replay(1)
+                .refCount();
+    }
+
+    /**
+     * Check card connection inside a reader transaction, so that a state change waits for
+     * APDU sequences in progress instead of resetting the card in between.
+     */
+    static boolean connected(SmartCardReader reader) {
+        try (SmartCardReader.Transaction ignored = reader.beginTransaction()) {
+            return reader.connected();
+        }
+    }
+
+    public UsbDevice device() {
+        return device;
+    }
+
+    public SmartCardReader reader() {
+        return reader;
+    }
+
+    /**
+     * @return Card presence in this reader, driven by the reader's card state events or
+     * polled when the reader has none.
+     */
+    public Observable<SmartCardReaderStatus> status() {
+        return status;
+    }
+
+    /**
+     * @return Last status emitted by {@link #status()}.
+     */
+    public SmartCardReaderStatus currentStatus() {
+        return currentStatus;
+    }
+
+    /**
+     * @return Executor running card operations of this reader, created on first use.
+     */
+    public synchronized CardExecutor executor() {
+        if (executor == null) {
+            executor = new CardExecutor(reader);
+        }
+        return executor;
+    }
+
+    /**
+     * Stop the executor and close the reader, called when the device is detached.
+     */
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (executor != null) {
+            executor.close();
+            executor = null;
+        }
+        try {
+            reader.close();
+        } catch (Exception e) {
+            LoggingUtil.Companion.errorLog(TAG, String.format("Closing reader %s", reader), e);
+        }
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "UsbReaderState{device=%s, status=%s}",
+                device.getDeviceName(), currentStatus);
+    }
+}
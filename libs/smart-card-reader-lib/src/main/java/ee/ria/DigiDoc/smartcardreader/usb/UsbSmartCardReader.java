@@ -21,6 +21,10 @@ package ee.ria.DigiDoc.smartcardreader.usb;
 
 import android.hardware.usb.UsbDevice;
 
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+
 import ee.ria.DigiDoc.smartcardreader.SmartCardReader;
 
 /**
@@ -30,8 +34,70 @@ import ee.ria.DigiDoc.smartcardreader.SmartCardReader;
  */
 public abstract class UsbSmartCardReader extends SmartCardReader {
 
+    /**
+     * Maximum short response, 256 bytes of data and the status words.
+     */
+    protected static final int MAX_SHORT_RESPONSE_LENGTH = 258;
+    /**
+     * Maximum extended response, 65536 bytes of data and the status words.
+     */
+    protected static final int MAX_EXTENDED_RESPONSE_LENGTH = 65538;
+
+    @Nullable private ByteBuffer receiveBuffer;
+
     public abstract boolean supports(UsbDevice usbDevice);
 
     public abstract void open(UsbDevice usbDevice);
 
+    /**
+     * Set the listener notified when a card is inserted or removed, null to stop
+     * listening. The reader must be opened. Readers without card state events ignore the
+     * listener and are polled, see {@link #reportsCardState()}.
+     *
+     * @param listener Listener called on a driver thread.
+     */
+    public void setCardStateListener(@Nullable CardStateListener listener) {
+    }
+
+    /**
+     * @return Whether the opened reader notifies the {@link CardStateListener}.
+     */
+    public boolean reportsCardState() {
+        return false;
+    }
+
+    /**
+     * Buffer for receiving responses, sized to the maximum response of the negotiated
+     * length mode and taken from the {@link #bufferPool() pool} once. Responses returned
+     * from transceive are views into it and valid until the next transmit.
+     *
+     * @return Receive buffer of this reader.
+     */
+    protected final synchronized byte[] receiveBuffer() {
+        int length = isExtendedLengthEnabled() ? MAX_EXTENDED_RESPONSE_LENGTH : MAX_SHORT_RESPONSE_LENGTH;
+        if (receiveBuffer == null || receiveBuffer.capacity() < length) {
+            bufferPool().release(receiveBuffer);
+            receiveBuffer = bufferPool().acquire(length);
+        }
+        return receiveBuffer.array();
+    }
+
+    /**
+     * Return the receive buffer to the pool, called when the reader is closed.
+     */
+    protected final synchronized void releaseReceiveBuffer() {
+        bufferPool().release(receiveBuffer);
+        receiveBuffer = null;
+    }
+
+    /**
+     * Listener of card insertion and removal.
+     */
+    public interface CardStateListener {
+
+        /**
+         * Card state in the reader changed, {@link #connected()} tells the new state.
+         */
+        void onCardStateChanged();
+    }
 }
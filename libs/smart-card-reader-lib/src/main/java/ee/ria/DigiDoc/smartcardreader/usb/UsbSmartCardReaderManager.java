@@ -23,85 +23,176 @@ import android.content.Context;
 import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbManager;
 
-import androidx.annotation.Nullable;
-
 import com.google.common.collect.ImmutableList;
 
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import ee.ria.DigiDoc.smartcardreader.SmartCardReader;
 import ee.ria.DigiDoc.smartcardreader.SmartCardReaderException;
 import ee.ria.DigiDoc.smartcardreader.SmartCardReaderStatus;
 import ee.ria.DigiDoc.smartcardreader.SmartCardReaderManager;
+import ee.ria.DigiDoc.utilsLib.logging.LoggingUtil;
 import io.reactivex.rxjava3.core.Observable;
 
 /**
  * Manage smart card readers on Android platform.
+ * <p>
+ * Every attached supported device gets its own reader instance and status stream, see
+ * {@link #readers()}. {@link #status()} combines them: CARD_DETECTED when any reader has
+ * a card, READER_DETECTED when any reader is attached.
  */
 public final class UsbSmartCardReaderManager implements SmartCardReaderManager {
+    private static final String TAG = UsbSmartCardReaderManager.class.getName();
+
+    private final UsbManager usbManager;
+    private final UsbDriverRegistry drivers;
 
     /**
-     * Card connected retry interval in milliseconds.
+     * Attached readers by device id.
      */
-    private static final int CONNECT_RETRY = 2500;
-
-    private final UsbManager usbManager;
-    private final ImmutableList<UsbSmartCardReader> readers;
+    private final Map<Integer, UsbReaderState> attached = new ConcurrentHashMap<>();
 
+    private final Observable<ImmutableList<UsbReaderState>> readersObservable;
     private final Observable<SmartCardReaderStatus> statusObservable;
 
-    private SmartCardReader reader;
+    public UsbSmartCardReaderManager(Context context, UsbManager usbManager) {
+        this(context, usbManager, UsbDriverRegistry.defaults(context, usbManager));
+    }
 
+    /**
+     * @param readers Readers probing each device in turn, consulted in order. A reader
+     * instance drives one device at a time, another device it supports is not attached
+     * while the reader is in use.
+     * @deprecated Use {@link #UsbSmartCardReaderManager(Context, UsbManager, UsbDriverRegistry)},
+     * which creates a reader instance per attached device.
+     */
+    @Deprecated
     public UsbSmartCardReaderManager(Context context, UsbManager usbManager,
                                   ImmutableList<UsbSmartCardReader> readers) {
+        this(context, usbManager, probes(readers));
+    }
+
+    public UsbSmartCardReaderManager(Context context, UsbManager usbManager, UsbDriverRegistry drivers) {
         this.usbManager = usbManager;
-        this.readers = readers;
-        statusObservable = Observable
+        this.drivers = drivers;
+        readersObservable = Observable
                 .create(new UsbSmartCardReaderOnSubscribe(context, this))
-                .switchMap(readerOptional -> {
-                    if (readerOptional.isPresent()) {
-                        return Observable
-                                .fromCallable(() -> {
-                                    readerOptional.get().connected();
-                                    return readerOptional;
-                                })
-                                .repeatWhen(completed ->
-                                        completed.delay(CONNECT_RETRY, TimeUnit.MILLISECONDS));
-                    } else {
-                        return Observable.just(readerOptional);
-                    }
-                })
-                .map(readerOptional -> {
-                    if (!readerOptional.isPresent()) {
-                        reader = null;
-                        return SmartCardReaderStatus.IDLE;
+                .replay(1)
+                .refCount();
+        statusObservable = readersObservable
+                .switchMap(readers -> {
+                    if (readers.isEmpty()) {
+                        return Observable.just(SmartCardReaderStatus.IDLE);
                     }
-                    reader = readerOptional.get();
-                    if (reader.connected()) {
-                        return SmartCardReaderStatus.CARD_DETECTED;
-                    } else {
-                        return SmartCardReaderStatus.READER_DETECTED;
+                    List<Observable<SmartCardReaderStatus>> statuses = new ArrayList<>(readers.size());
+                    for (UsbReaderState reader : readers) {
+                        statuses.add(reader.status());
                     }
+                    return Observable.combineLatest(statuses, UsbSmartCardReaderManager::combine);
                 })
+                .distinctUntilChanged()
                 .replay(1)
                 .refCount();
     }
 
-    boolean supports(UsbDevice usbDevice) {
-        return reader(usbDevice) != null;
+    private static SmartCardReaderStatus combine(Object[] statuses) {
+        SmartCardReaderStatus combined = SmartCardReaderStatus.IDLE;
+        for (Object status : statuses) {
+            if (status == SmartCardReaderStatus.CARD_DETECTED) {
+                return SmartCardReaderStatus.CARD_DETECTED;
+            }
+            combined = SmartCardReaderStatus.READER_DETECTED;
+        }
+        return combined;
     }
 
-    @Nullable
-    SmartCardReader reader(UsbDevice usbDevice) {
+    private static UsbDriverRegistry probes(ImmutableList<UsbSmartCardReader> readers) {
+        UsbDriverRegistry.Builder builder = UsbDriverRegistry.builder();
         for (UsbSmartCardReader reader : readers) {
-            if (reader.supports(usbDevice)) {
-                if (usbManager.hasPermission(usbDevice)) {
-                    reader.open(usbDevice);
+            builder.probe(new UsbSmartCardReaderFactory() {
+                @Override
+                public boolean supports(UsbDevice usbDevice) {
+                    return reader.supports(usbDevice);
                 }
-                return reader;
+
+                @Override
+                public UsbSmartCardReader create() {
+                    return reader;
+                }
+            });
+        }
+        return builder.build();
+    }
+
+    boolean supports(UsbDevice usbDevice) {
+        return drivers.driver(usbDevice) != null;
+    }
+
+    /**
+     * Create and open the reader of a device that the app has permission for. A reader
+     * instance already driving another device is not shared.
+     *
+     * @return Whether the device is supported and attached.
+     */
+    synchronized boolean attach(UsbDevice usbDevice) {
+        if (attached.containsKey(usbDevice.getDeviceId())) {
+            return true;
+        }
+        UsbDriverRegistry.Driver driver = drivers.driver(usbDevice);
+        if (driver == null || !usbManager.hasPermission(usbDevice)) {
+            return false;
+        }
+        UsbSmartCardReader reader = driver.create();
+        for (UsbReaderState state : attached.values()) {
+            if (state.reader() == reader) {
+                LoggingUtil.Companion.debugLog(TAG, "Reader " + reader.getClass().getSimpleName()
+                        + " is in use by another device, skipping " + usbDevice.getDeviceName(), null);
+                return false;
             }
         }
-        return null;
+        reader.open(usbDevice);
+        UsbReaderState state = new UsbReaderState(usbDevice, reader);
+        if (attached.putIfAbsent(usbDevice.getDeviceId(), state) != null) {
+            state.close();
+        }
+        return true;
+    }
+
+    /**
+     * @return Whether the device had a reader.
+     */
+    boolean detach(UsbDevice usbDevice) {
+        UsbReaderState state = attached.remove(usbDevice.getDeviceId());
+        if (state == null) {
+            return false;
+        }
+        state.close();
+        return true;
+    }
+
+    void detachAll() {
+        for (UsbReaderState state : attached.values()) {
+            detach(state.device());
+        }
+    }
+
+    /**
+     * @return Snapshot of the attached readers.
+     */
+    public ImmutableList<UsbReaderState> attachedReaders() {
+        return ImmutableList.copyOf(attached.values());
+    }
+
+    /**
+     * Attached readers, emitted again whenever a reader is attached or detached.
+     *
+     * @return Stream of attached readers, subscribing starts USB device monitoring.
+     */
+    public Observable<ImmutableList<UsbReaderState>> readers() {
+        return readersObservable;
     }
 
     @Override
@@ -109,11 +200,29 @@ public final class UsbSmartCardReaderManager implements SmartCardReaderManager {
         return statusObservable;
     }
 
+    /**
+     * @return First attached reader with a connected card.
+     */
     @Override
     public SmartCardReader connectedReader() throws SmartCardReaderException {
-        if (reader == null || !reader.connected()) {
-            throw new SmartCardReaderException("Reader or card is not connected");
+        for (UsbReaderState state : attached.values()) {
+            if (UsbReaderState.connected(state.reader())) {
+                return state.reader();
+            }
+        }
+        throw new SmartCardReaderException("Reader or card is not connected");
+    }
+
+    /**
+     * @return All attached readers with a connected card.
+     */
+    public ImmutableList<SmartCardReader> connectedReaders() {
+        ImmutableList.Builder<SmartCardReader> readers = ImmutableList.builder();
+        for (UsbReaderState state : attached.values()) {
+            if (UsbReaderState.connected(state.reader())) {
+                readers.add(state.reader());
+            }
         }
-        return reader;
+        return readers.build();
     }
 }
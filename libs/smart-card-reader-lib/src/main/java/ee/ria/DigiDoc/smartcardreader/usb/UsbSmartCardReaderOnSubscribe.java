@@ -28,17 +28,14 @@ import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbManager;
 import android.os.Build;
 
-import androidx.annotation.Nullable;
-
-import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 
 import ee.ria.DigiDoc.smartcardreader.BuildConfig;
-import ee.ria.DigiDoc.smartcardreader.SmartCardReader;
 import ee.ria.DigiDoc.utilsLib.logging.LoggingUtil;
 import io.reactivex.rxjava3.core.ObservableEmitter;
 import io.reactivex.rxjava3.core.ObservableOnSubscribe;
 
-final class UsbSmartCardReaderOnSubscribe implements ObservableOnSubscribe<Optional<SmartCardReader>> {
+final class UsbSmartCardReaderOnSubscribe implements ObservableOnSubscribe<ImmutableList<UsbReaderState>> {
     private static final String TAG = UsbSmartCardReaderOnSubscribe.class.getName();
     private static final String ACTION_USB_DEVICE_PERMISSION = BuildConfig.LIBRARY_PACKAGE_NAME +
             ".USB_DEVICE_PERMISSION";
@@ -47,9 +44,6 @@ final class UsbSmartCardReaderOnSubscribe implements ObservableOnSubscribe<Optio
     private final UsbManager usbManager;
     private final UsbSmartCardReaderManager smartCardReaderManager;
 
-    @Nullable private UsbDevice currentDevice;
-    @Nullable private SmartCardReader currentReader;
-
     UsbSmartCardReaderOnSubscribe(Context context, UsbSmartCardReaderManager smartCardReaderManager) {
         this.context = context;
         usbManager = (UsbManager) context.getSystemService(Context.USB_SERVICE);
@@ -57,7 +51,7 @@ final class UsbSmartCardReaderOnSubscribe implements ObservableOnSubscribe<Optio
     }
 
     @Override
-    public void subscribe(ObservableEmitter<Optional<SmartCardReader>> emitter) {
+    public void subscribe(ObservableEmitter<ImmutableList<UsbReaderState>> emitter) {
         BroadcastReceiver deviceAttachReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
@@ -73,10 +67,8 @@ final class UsbSmartCardReaderOnSubscribe implements ObservableOnSubscribe<Optio
             public void onReceive(Context context, Intent intent) {
                 UsbDevice device = getUsbDevice(intent);
                 LoggingUtil.Companion.debugLog(TAG, String.format("Smart card device detached: %s", device), null);
-                if (device != null && currentDevice != null &&
-                        currentDevice.getDeviceId() == device.getDeviceId()) {
-                    clearCurrent();
-                    emitter.onNext(Optional.absent());
+                if (device != null && smartCardReaderManager.detach(device)) {
+                    emitter.onNext(smartCardReaderManager.attachedReaders());
                 }
             }
         };
@@ -88,11 +80,8 @@ final class UsbSmartCardReaderOnSubscribe implements ObservableOnSubscribe<Optio
                 UsbDevice device = getUsbDevice(intent);
                 LoggingUtil.Companion.debugLog(TAG, String.format("Smart card device permission: granted: %s; device: %s", permissionGranted,
                         device), null);
-                if (permissionGranted && smartCardReaderManager.supports(device)) {
-                    clearCurrent();
-                    currentDevice = device;
-                    currentReader = smartCardReaderManager.reader(device);
-                    emitter.onNext(Optional.fromNullable(currentReader));
+                if (permissionGranted && device != null && smartCardReaderManager.attach(device)) {
+                    emitter.onNext(smartCardReaderManager.attachedReaders());
                 }
             }
         };
@@ -117,13 +106,18 @@ final class UsbSmartCardReaderOnSubscribe implements ObservableOnSubscribe<Optio
             context.unregisterReceiver(deviceAttachReceiver);
             context.unregisterReceiver(deviceDetachReceiver);
             context.unregisterReceiver(devicePermissionReceiver);
-            clearCurrent();
+            smartCardReaderManager.detachAll();
         });
 
+        emitter.onNext(smartCardReaderManager.attachedReaders());
         for (UsbDevice device : usbManager.getDeviceList().values()) {
             if (smartCardReaderManager.supports(device)) {
-                requestPermission(device);
-                break;
+                if (usbManager.hasPermission(device)) {
+                    smartCardReaderManager.attach(device);
+                    emitter.onNext(smartCardReaderManager.attachedReaders());
+                } else {
+                    requestPermission(device);
+                }
             }
         }
     }
@@ -147,18 +141,6 @@ final class UsbSmartCardReaderOnSubscribe implements ObservableOnSubscribe<Optio
         }
     }
 
-    private void clearCurrent() {
-        currentDevice = null;
-        if (currentReader != null) {
-            try {
-                currentReader.close();
-            } catch (Exception e) {
-                LoggingUtil.Companion.errorLog(TAG, String.format("Closing current reader %s", currentReader), e);
-            }
-            currentReader = null;
-        }
-    }
-
     private UsbDevice getUsbDevice(Intent intent) {
         if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.TIRAMISU) {
             return intent.getParcelableExtra(UsbManager.EXTRA_DEVICE, UsbDevice.class);
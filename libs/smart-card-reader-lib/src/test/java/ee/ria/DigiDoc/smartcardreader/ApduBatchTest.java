@@ -0,0 +1,91 @@
+package ee.ria.DigiDoc.smartcardreader;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public final class ApduBatchTest {
+
+    private static final ApduBatch BATCH = ApduBatch.builder()
+            .add(0x00, 0xA4, 0x02, 0x0C, new byte[] {0x50, 0x01}, null)
+            .add(0x00, 0xB0, 0x00, 0x00, null, 0x00, 0x9000, 0x6282)
+            .add(0x00, 0xB0, 0x00, 0x10, null, 0x00)
+            .build();
+
+    private FakeSmartCardReader reader;
+
+    @Before
+    public void before() {
+        reader = new FakeSmartCardReader();
+    }
+
+    @Test
+    public void transmitBatch_allExpected() throws Exception {
+        reader.respond(
+                new byte[] {(byte) 0x90, 0x00},
+                new byte[] {0x6A, (byte) 0x82},
+                new byte[] {0x01, 0x02, (byte) 0x90, 0x00});
+        ApduBatch batch = ApduBatch.builder()
+                .add(0x00, 0xA4, 0x02, 0x0C, new byte[] {0x50, 0x01}, null)
+                .add(0x00, 0xB0, 0x00, 0x00, null, 0x00, 0x9000, 0x6A82)
+                .add(0x00, 0xB0, 0x00, 0x10, null, 0x00)
+                .build();
+
+        ApduBatchResult result = reader.transmitBatch(batch);
+
+        assertThat(result.isComplete()).isTrue();
+        assertThat(result.size()).isEqualTo(3);
+        assertThat(result.sw(1)).isEqualTo(0x6A82);
+        assertThat(result.data(2)).isEqualTo(new byte[] {0x01, 0x02});
+        assertThat(result.throwIfIncomplete()).isSameInstanceAs(result);
+    }
+
+    @Test
+    public void transmitBatch_stopsAtUnexpectedStatus() throws Exception {
+        reader.respond(
+                new byte[] {(byte) 0x90, 0x00},
+                new byte[] {0x6A, (byte) 0x82});
+
+        ApduBatchResult result = reader.transmitBatch(BATCH);
+
+        assertThat(result.isComplete()).isFalse();
+        assertThat(result.size()).isEqualTo(2);
+        assertThat(result.sw(1)).isEqualTo(0x6A82);
+        assertThat(reader.sent).hasSize(2);
+        try {
+            result.throwIfIncomplete();
+            throw new AssertionError("Expected ApduResponseException");
+        } catch (ApduResponseException e) {
+            assertThat(e.sw1).isEqualTo((byte) 0x6A);
+            assertThat(e.sw2).isEqualTo((byte) 0x82);
+        }
+    }
+
+    @Test
+    public void transmitBatch_defaultAcceptsEndOfFile() throws Exception {
+        reader.respond(new byte[] {0x01, 0x62, (byte) 0x82});
+        ApduBatch batch = ApduBatch.builder()
+                .add(0x00, 0xB0, 0x00, 0x00, null, 0x00)
+                .build();
+
+        ApduBatchResult result = reader.transmitBatch(batch);
+
+        assertThat(result.isComplete()).isTrue();
+        assertThat(result.data(0)).isEqualTo(new byte[] {0x01});
+    }
+
+    @Test
+    public void transmitBatch_responseChainInBatch() throws Exception {
+        reader.respond(
+                new byte[] {(byte) 0x90, 0x00},
+                new byte[] {0x01, 0x61, 0x01},
+                new byte[] {0x02, (byte) 0x90, 0x00});
+
+        ApduBatchResult result = reader.transmitBatch(BATCH);
+
+        assertThat(result.isComplete()).isTrue();
+        assertThat(result.data(1)).isEqualTo(new byte[] {0x01, 0x02});
+        assertThat(reader.sent).hasSize(4);
+    }
+}
@@ -0,0 +1,103 @@
+package ee.ria.DigiDoc.smartcardreader;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public final class ApduInterceptorTest {
+
+    private FakeSmartCardReader reader;
+    private final List<String> calls = new ArrayList<>();
+
+    @Before
+    public void before() {
+        reader = new FakeSmartCardReader();
+    }
+
+    @Test
+    public void transmitRaw_interceptorsCalledInOrder() throws Exception {
+        reader.addInterceptor(recording("first"));
+        reader.addInterceptor(recording("second"));
+
+        reader.transmitRaw(0x00, 0xB0, 0x00, 0x00, null, 0x00);
+
+        assertThat(calls).containsExactly("first:B0", "second:B0").inOrder();
+    }
+
+    @Test
+    public void transmitRaw_interceptorReplacesCommand() throws Exception {
+        reader.addInterceptor(chain -> chain.proceed(
+                CommandApdu.of(0x00, 0xB0, 0x00, 0x10, null, 0x05)));
+
+        reader.transmitRaw(0x00, 0xB0, 0x00, 0x00, null, 0x00);
+
+        assertThat(reader.sent.get(0)).isEqualTo(new byte[] {0x00, (byte) 0xB0, 0x00, 0x10, 0x05});
+    }
+
+    @Test
+    public void transmitRaw_interceptorShortCircuits() throws Exception {
+        reader.addInterceptor(chain -> ResponseApdu.of(new byte[] {0x01, (byte) 0x90, 0x00}));
+
+        byte[] data = reader.transmit(0x00, 0xB0, 0x00, 0x00, null, 0x00);
+
+        assertThat(data).isEqualTo(new byte[] {0x01});
+        assertThat(reader.sent).isEmpty();
+    }
+
+    @Test
+    public void transmitRaw_transportInterceptorSeesEveryApdu() throws Exception {
+        reader.addInterceptor(recording("logical"));
+        reader.addTransportInterceptor(recording("transport"));
+        reader.respond(
+                new byte[] {0x01, 0x61, 0x01},
+                new byte[] {0x02, (byte) 0x90, 0x00});
+
+        reader.transmitRaw(0x00, 0xB0, 0x00, 0x00, null, 0x00);
+
+        assertThat(calls).containsExactly("logical:B0", "transport:B0", "transport:C0").inOrder();
+    }
+
+    @Test
+    public void removeInterceptor() throws Exception {
+        ApduInterceptor interceptor = recording("removed");
+        reader.addInterceptor(interceptor);
+        reader.addTransportInterceptor(interceptor);
+        reader.removeInterceptor(interceptor);
+
+        reader.transmitRaw(0x00, 0xB0, 0x00, 0x00, null, 0x00);
+
+        assertThat(calls).isEmpty();
+        assertThat(reader.sent).hasSize(1);
+    }
+
+    @Test
+    public void commandApdu_of_roundTripsThroughWrap() {
+        byte[] data = new byte[300];
+        CommandApdu command = CommandApdu.wrap(
+                CommandApdu.of(0x00, 0x2A, 0x80, 0x86, data, 0x00).toByteArray());
+
+        assertThat(command.ins()).isEqualTo(0x2A);
+        assertThat(command.dataLength()).isEqualTo(300);
+        assertThat(command.le()).isEqualTo(0);
+        assertThat(CommandApdu.wrap(new byte[] {0x00, (byte) 0xA4, 0x02, 0x0C, 0x02, 0x50, 0x01}).le()).isNull();
+    }
+
+    @Test
+    public void loggingInterceptor_redactsVerifyData() {
+        CommandApdu verify = CommandApdu.of(0x00, 0x20, 0x00, 0x01, new byte[] {0x31, 0x32, 0x33, 0x34}, null);
+
+        assertThat(ApduLoggingInterceptor.format(verify)).isEqualTo("00200001 <4 bytes redacted>");
+    }
+
+    private ApduInterceptor recording(String name) {
+        return chain -> {
+            calls.add(String.format("%s:%02X", name, chain.command().ins()));
+            assertThat(chain.reader()).isSameInstanceAs(reader);
+            return chain.proceed(chain.command());
+        };
+    }
+}
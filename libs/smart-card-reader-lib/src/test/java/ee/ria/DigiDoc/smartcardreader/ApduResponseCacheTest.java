@@ -0,0 +1,100 @@
+package ee.ria.DigiDoc.smartcardreader;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public final class ApduResponseCacheTest {
+
+    private static final byte[] AID = {(byte) 0xA0, 0x00, 0x00, 0x00, 0x77};
+
+    private FakeSmartCardReader reader;
+    private ApduResponseCache cache;
+
+    @Before
+    public void before() {
+        reader = new FakeSmartCardReader();
+        cache = new ApduResponseCache();
+        reader.addInterceptor(cache);
+    }
+
+    @Test
+    public void repeatedReads_answeredFromCache() throws Exception {
+        reader.respond(
+                new byte[] {(byte) 0x90, 0x00},
+                new byte[] {(byte) 0x90, 0x00},
+                new byte[] {0x01, 0x02, (byte) 0x90, 0x00});
+
+        readRecord();
+        byte[] record = readRecord();
+
+        assertThat(record).isEqualTo(new byte[] {0x01, 0x02});
+        assertThat(reader.sent).hasSize(3);
+        assertThat(cache.hits()).isEqualTo(3);
+    }
+
+    @Test
+    public void readInOtherSelection_restoresSelection() throws Exception {
+        readRecord();
+        reader.transmit(0x00, 0xA4, 0x04, 0x0C, AID, null);
+        reader.transmit(0x00, 0xA4, 0x02, 0x0C, new byte[] {0x50, 0x02}, null);
+        reader.sent.clear();
+
+        // Selection of record 1 is cached, record 1 contents are cached
+        readRecord();
+        assertThat(reader.sent).isEmpty();
+
+        // Reading at another offset has to restore the selection on the card
+        reader.transmit(0x00, 0xB0, 0x00, 0x10, null, 0x00);
+
+        assertThat(reader.sent).hasSize(3);
+        assertThat(reader.sent.get(0)[1]).isEqualTo((byte) 0xA4);
+        assertThat(reader.sent.get(1)[6]).isEqualTo((byte) 0x01);
+        assertThat(reader.sent.get(2)[1]).isEqualTo((byte) 0xB0);
+    }
+
+    @Test
+    public void consecutiveEfSelects_replacePreviousEf() throws Exception {
+        reader.transmit(0x00, 0xA4, 0x04, 0x0C, AID, null);
+        reader.transmit(0x00, 0xA4, 0x02, 0x0C, new byte[] {0x50, 0x01}, null);
+        reader.transmit(0x00, 0xA4, 0x02, 0x0C, new byte[] {0x50, 0x02}, null);
+        reader.transmit(0x00, 0xB0, 0x00, 0x00, null, 0x00);
+        reader.sent.clear();
+
+        // Same EF selected without the previous EF, the cached read applies
+        reader.transmit(0x00, 0xA4, 0x04, 0x0C, AID, null);
+        reader.transmit(0x00, 0xA4, 0x02, 0x0C, new byte[] {0x50, 0x02}, null);
+        reader.transmit(0x00, 0xB0, 0x00, 0x00, null, 0x00);
+
+        assertThat(reader.sent).isEmpty();
+    }
+
+    @Test
+    public void stateChangingCommand_clearsCache() throws Exception {
+        readRecord();
+        reader.transmit(0x00, 0x20, 0x00, 0x01, new byte[] {0x31, 0x32, 0x33, 0x34}, null);
+        reader.sent.clear();
+
+        readRecord();
+
+        assertThat(reader.sent).hasSize(3);
+    }
+
+    @Test
+    public void errorResponse_notCached() throws Exception {
+        reader.respond(new byte[] {0x6A, (byte) 0x82}, new byte[] {0x6A, (byte) 0x82});
+
+        reader.transmitRaw(0x00, 0xA4, 0x04, 0x0C, AID, null);
+        ResponseApdu response = reader.transmitRaw(0x00, 0xA4, 0x04, 0x0C, AID, null);
+
+        assertThat(response.sw()).isEqualTo(0x6A82);
+        assertThat(reader.sent).hasSize(2);
+    }
+
+    private byte[] readRecord() throws SmartCardReaderException {
+        reader.transmit(0x00, 0xA4, 0x04, 0x0C, AID, null);
+        reader.transmit(0x00, 0xA4, 0x02, 0x0C, new byte[] {0x50, 0x01}, null);
+        return reader.transmit(0x00, 0xB0, 0x00, 0x00, null, 0x00);
+    }
+}
@@ -0,0 +1,91 @@
+package ee.ria.DigiDoc.smartcardreader;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public final class ApduTypesTest {
+
+    @Test
+    public void commandApdu_encode_reusesBuffer() {
+        CommandApdu command = new CommandApdu(new ApduBufferPool());
+
+        command.encode(0x00, 0xA4, 0x04, 0x0C, new byte[] {0x01, 0x02}, 0, 2, null, false);
+        byte[] array = command.array();
+        command.encode(0x00, 0xB0, 0x00, 0x00, null, 0, 0, 0x00, false);
+
+        assertThat(command.array()).isSameInstanceAs(array);
+        assertThat(command.toByteArray()).isEqualTo(new byte[] {0x00, (byte) 0xB0, 0x00, 0x00, 0x00});
+        assertThat(command.ins()).isEqualTo(0xB0);
+    }
+
+    @Test
+    public void commandApdu_encode_growsForLargeCommand() {
+        CommandApdu command = new CommandApdu(new ApduBufferPool());
+        byte[] data = new byte[1000];
+        data[999] = 0x33;
+
+        command.encode(0x00, 0x2A, 0x80, 0x86, data, 0, data.length, 0x00, true);
+
+        assertThat(command.length()).isEqualTo(4 + 3 + 1000 + 2);
+        assertThat(command.array()[4 + 3 + 999]).isEqualTo((byte) 0x33);
+    }
+
+    @Test
+    public void responseApdu_dataIsView() throws Exception {
+        byte[] bytes = {0x01, 0x02, 0x03, (byte) 0x90, 0x00};
+
+        ResponseApdu response = ResponseApdu.of(bytes);
+        bytes[0] = 0x07;
+
+        assertThat(response.isSuccess()).isTrue();
+        assertThat(response.dataLength()).isEqualTo(3);
+        assertThat(response.data().get(0)).isEqualTo((byte) 0x07);
+        assertThat(response.toDataArray()).isEqualTo(new byte[] {0x07, 0x02, 0x03});
+    }
+
+    @Test
+    public void responseApdu_statusWords() throws Exception {
+        ResponseApdu response = new ResponseApdu().set(new byte[] {0x00, 0x6A, (byte) 0x82, 0x00}, 1, 2);
+
+        assertThat(response.sw1()).isEqualTo((byte) 0x6A);
+        assertThat(response.sw2()).isEqualTo((byte) 0x82);
+        assertThat(response.sw()).isEqualTo(0x6A82);
+        assertThat(response.isSuccess()).isFalse();
+        assertThat(response.dataLength()).isEqualTo(0);
+    }
+
+    @Test(expected = SmartCardReaderException.class)
+    public void responseApdu_missingStatusWords() throws Exception {
+        ResponseApdu.of(new byte[] {(byte) 0x90});
+    }
+
+    @Test
+    public void bufferPool_releasedBufferIsReused() {
+        ApduBufferPool pool = new ApduBufferPool(16, 2);
+
+        ByteBuffer buffer = pool.acquire(8);
+        pool.release(buffer);
+
+        assertThat(pool.acquire(16)).isSameInstanceAs(buffer);
+        assertThat(pool.acquire(32).capacity()).isEqualTo(32);
+    }
+
+    @Test
+    public void transmit_chainedCommand_sentFromSharedBuffer() throws Exception {
+        FakeSmartCardReader reader = new FakeSmartCardReader();
+        byte[] data = new byte[300];
+        data[255] = 0x44;
+
+        reader.transmit(0x00, 0xD6, 0x00, 0x00, data, null);
+
+        assertThat(reader.sent).hasSize(2);
+        assertThat(reader.sent.get(0)).hasLength(5 + 255);
+        assertThat(reader.sent.get(0)[0]).isEqualTo((byte) 0x10);
+        assertThat(reader.sent.get(1)).hasLength(5 + 45);
+        assertThat(reader.sent.get(1)[4]).isEqualTo((byte) 45);
+        assertThat(reader.sent.get(1)[5]).isEqualTo((byte) 0x44);
+    }
+}
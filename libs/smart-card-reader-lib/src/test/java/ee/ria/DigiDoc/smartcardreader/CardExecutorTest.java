@@ -0,0 +1,74 @@
+package ee.ria.DigiDoc.smartcardreader;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public final class CardExecutorTest {
+
+    private FakeSmartCardReader reader;
+    private CardExecutor executor;
+
+    @Before
+    public void before() {
+        reader = new FakeSmartCardReader();
+        executor = new CardExecutor(reader);
+    }
+
+    @After
+    public void after() {
+        executor.close();
+    }
+
+    @Test
+    public void submit_runsTasksInOrderOnCardThread() throws Exception {
+        List<Integer> order = new ArrayList<>();
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            int index = i;
+            futures.add(executor.submit(() -> {
+                order.add(index);
+                reader.transmit(0x00, 0xB0, 0x00, index, null, 0x00);
+                return Thread.currentThread().getName();
+            }));
+        }
+
+        String thread = futures.get(4).get(5, TimeUnit.SECONDS);
+
+        assertThat(order).containsExactly(0, 1, 2, 3, 4).inOrder();
+        assertThat(thread).startsWith("card-io-");
+        assertThat(reader.sent).hasSize(5);
+    }
+
+    @Test
+    public void submit_exceptionCompletesFuture() throws Exception {
+        reader.respond(new byte[] {0x6A, (byte) 0x82});
+
+        CompletableFuture<byte[]> future = executor.submit(
+                () -> reader.transmit(0x00, 0xA4, 0x02, 0x0C, new byte[] {0x50, 0x01}, null));
+
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            throw new AssertionError("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(ApduResponseException.class);
+        }
+    }
+
+    @Test
+    public void submit_afterClose_fails() {
+        executor.close();
+
+        CompletableFuture<Integer> future = executor.submit(() -> 1);
+
+        assertThat(future.isCompletedExceptionally()).isTrue();
+    }
+}
@@ -0,0 +1,98 @@
+package ee.ria.DigiDoc.smartcardreader;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public final class ExtendedLengthApduTest {
+
+    private FakeSmartCardReader reader;
+
+    @Before
+    public void before() {
+        reader = new FakeSmartCardReader();
+        reader.extendedLength = true;
+        reader.setExtendedLengthEnabled(true);
+    }
+
+    @Test
+    public void isExtendedLengthEnabled_notSupportedByReader() {
+        reader.extendedLength = false;
+
+        assertThat(reader.isExtendedLengthEnabled()).isFalse();
+    }
+
+    @Test
+    public void transmit_notEnabled_usesShortApdu() throws Exception {
+        reader.setExtendedLengthEnabled(false);
+
+        reader.transmit(0x00, 0xB0, 0x00, 0x00, null, 0x00);
+
+        assertThat(reader.sent).hasSize(1);
+        assertThat(reader.sent.get(0)).isEqualTo(new byte[] {0x00, (byte) 0xB0, 0x00, 0x00, 0x00});
+    }
+
+    @Test
+    public void transmit_smallCommand_usesShortApdu() throws Exception {
+        reader.transmit(0x00, 0xA4, 0x04, 0x0C, new byte[] {0x01, 0x02}, null);
+
+        assertThat(reader.sent).hasSize(1);
+        assertThat(reader.sent.get(0)).isEqualTo(new byte[] {0x00, (byte) 0xA4, 0x04, 0x0C, 0x02, 0x01, 0x02});
+    }
+
+    @Test
+    public void transmit_dataNull_leMaximum() throws Exception {
+        reader.transmit(0x00, 0xB0, 0x01, 0x02, null, 0x00);
+
+        assertThat(reader.sent).hasSize(1);
+        assertThat(reader.sent.get(0)).isEqualTo(new byte[] {0x00, (byte) 0xB0, 0x01, 0x02, 0x00, 0x00, 0x00});
+    }
+
+    @Test
+    public void transmit_dataNull_leAbove256() throws Exception {
+        reader.transmit(0x00, 0xB0, 0x00, 0x00, null, 0x0400);
+
+        assertThat(reader.sent).hasSize(1);
+        assertThat(reader.sent.get(0)).isEqualTo(new byte[] {0x00, (byte) 0xB0, 0x00, 0x00, 0x00, 0x04, 0x00});
+    }
+
+    @Test
+    public void transmit_data300Bytes_leNull_sentInSingleApdu() throws Exception {
+        byte[] data = new byte[300];
+        data[0] = 0x11;
+        data[299] = 0x22;
+
+        reader.transmit(0x00, 0x2A, 0x80, 0x86, data, null);
+
+        assertThat(reader.sent).hasSize(1);
+        byte[] apdu = reader.sent.get(0);
+        assertThat(apdu).hasLength(4 + 3 + 300);
+        assertThat(apdu[4]).isEqualTo(0x00);
+        assertThat(apdu[5]).isEqualTo(0x01);
+        assertThat(apdu[6]).isEqualTo(0x2C);
+        assertThat(apdu[7]).isEqualTo(0x11);
+        assertThat(apdu[306]).isEqualTo(0x22);
+    }
+
+    @Test
+    public void transmit_data300Bytes_lePresent() throws Exception {
+        reader.transmit(0x00, 0x2A, 0x80, 0x86, new byte[300], 0x00);
+
+        byte[] apdu = reader.sent.get(0);
+        assertThat(apdu).hasLength(4 + 3 + 300 + 2);
+        assertThat(apdu[307]).isEqualTo(0x00);
+        assertThat(apdu[308]).isEqualTo(0x00);
+    }
+
+    @Test
+    public void transmit_response61XX_getResponseUsesShortLe() throws Exception {
+        reader.respond(
+                new byte[] {0x01, 0x61, 0x00},
+                new byte[] {0x02, (byte) 0x90, 0x00});
+
+        assertThat(reader.transmit(0x00, 0xB0, 0x00, 0x00, null, 0x00))
+                .isEqualTo(new byte[] {0x01, 0x02});
+        assertThat(reader.sent.get(1)).isEqualTo(new byte[] {0x00, (byte) 0xC0, 0x00, 0x00, 0x00});
+    }
+}
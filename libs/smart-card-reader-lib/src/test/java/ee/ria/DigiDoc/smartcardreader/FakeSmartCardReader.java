@@ -0,0 +1,57 @@
+package ee.ria.DigiDoc.smartcardreader;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * SmartCardReader that records sent APDUs and replies with queued responses.
+ */
+class FakeSmartCardReader extends SmartCardReader {
+
+    final List<byte[]> sent = new ArrayList<>();
+    private final Deque<byte[]> responses = new ArrayDeque<>();
+    boolean extendedLength = false;
+    /**
+     * Queued response that fails the transmission with a transport error.
+     */
+    static final byte[] TRANSPORT_ERROR = new byte[0];
+
+    FakeSmartCardReader respond(byte[]... responses) {
+        for (byte[] response : responses) {
+            this.responses.add(response);
+        }
+        return this;
+    }
+
+    @Override
+    public boolean connected() {
+        return true;
+    }
+
+    @Override
+    public byte[] atr() {
+        return new byte[0];
+    }
+
+    @Override
+    protected boolean supportsExtendedLength() {
+        return extendedLength;
+    }
+
+    @Override
+    protected byte[] transmit(byte[] apdu) throws SmartCardReaderException {
+        sent.add(apdu);
+        byte[] response = responses.poll();
+        if (response == TRANSPORT_ERROR) {
+            throw new SmartCardReaderException(new IOException("Transceive failed"));
+        }
+        return response == null ? new byte[] {(byte) 0x90, 0x00} : response;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,56 @@
+package ee.ria.DigiDoc.smartcardreader;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public final class OperationJournalTest {
+
+    private final OperationJournal journal = new OperationJournal();
+
+    @Test
+    public void completedStepIsNotRepeated() throws SmartCardReaderException {
+        AtomicInteger runs = new AtomicInteger();
+
+        assertThat(journal.step("read", () -> runs.incrementAndGet())).isEqualTo(1);
+        assertThat(journal.step("read", () -> runs.incrementAndGet())).isEqualTo(1);
+        assertThat(runs.get()).isEqualTo(1);
+        assertThat(journal.isCompleted("read")).isTrue();
+    }
+
+    @Test
+    public void failedStepResumesPartialRead() throws SmartCardReaderException {
+        assertThrows(SmartCardReaderException.class, () -> journal.step("cert", () -> {
+            journal.partial("cert").write(new byte[] {1, 2}, 0, 2);
+            throw new SmartCardReaderException("Tag was lost");
+        }));
+        assertThat(journal.isCompleted("cert")).isFalse();
+
+        byte[] cert = journal.step("cert", () -> {
+            ByteArrayOutputStream stream = journal.partial("cert");
+            assertThat(stream.size()).isEqualTo(2);
+            stream.write(new byte[] {3}, 0, 1);
+            return stream.toByteArray();
+        });
+        assertThat(cert).isEqualTo(new byte[] {1, 2, 3});
+        assertThat(journal.partial("cert").size()).isEqualTo(0);
+    }
+
+    @Test
+    public void bindingOtherCardClearsJournal() throws SmartCardReaderException {
+        assertThat(journal.bind("card1")).isFalse();
+        journal.step("read", () -> "data");
+        journal.partial("cert").write(1);
+
+        assertThat(journal.bind("card1")).isTrue();
+        assertThat(journal.completedSteps()).isEqualTo(1);
+
+        assertThat(journal.bind("card2")).isFalse();
+        assertThat(journal.completedSteps()).isEqualTo(0);
+        assertThat(journal.partial("cert").size()).isEqualTo(0);
+    }
+}
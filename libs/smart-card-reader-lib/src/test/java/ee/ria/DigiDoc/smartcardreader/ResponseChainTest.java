@@ -0,0 +1,64 @@
+package ee.ria.DigiDoc.smartcardreader;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public final class ResponseChainTest {
+
+    private FakeSmartCardReader reader;
+
+    @Before
+    public void before() {
+        reader = new FakeSmartCardReader();
+    }
+
+    @Test
+    public void transmit_responseChain_accumulatesAllChunks() throws Exception {
+        reader.respond(
+                new byte[] {0x01, 0x02, 0x61, 0x02},
+                new byte[] {0x03, 0x04, 0x61, 0x00},
+                new byte[] {0x05, (byte) 0x90, 0x00});
+
+        byte[] response = reader.transmit(0x00, 0xB0, 0x00, 0x00, null, 0x00);
+
+        assertThat(response).isEqualTo(new byte[] {0x01, 0x02, 0x03, 0x04, 0x05});
+        assertThat(reader.sent).hasSize(3);
+        assertThat(reader.sent.get(1)).isEqualTo(new byte[] {0x00, (byte) 0xC0, 0x00, 0x00, 0x02});
+        assertThat(reader.sent.get(2)).isEqualTo(new byte[] {0x00, (byte) 0xC0, 0x00, 0x00, 0x00});
+    }
+
+    @Test
+    public void transmit_responseChain_errorInGetResponse() throws Exception {
+        reader.respond(
+                new byte[] {0x01, 0x61, 0x10},
+                new byte[] {0x6F, 0x00});
+
+        try {
+            reader.transmit(0x00, 0xB0, 0x00, 0x00, null, 0x00);
+            throw new AssertionError("Expected ApduResponseException");
+        } catch (ApduResponseException e) {
+            assertThat(e.sw1).isEqualTo((byte) 0x6F);
+            assertThat(e.sw2).isEqualTo((byte) 0x00);
+        }
+    }
+
+    @Test
+    public void transmit_responseChain_limitExceeded() throws Exception {
+        reader.setResponseChainLimit(2);
+        reader.respond(
+                new byte[] {0x61, 0x01},
+                new byte[] {0x01, 0x61, 0x01},
+                new byte[] {0x02, 0x61, 0x01},
+                new byte[] {0x03, (byte) 0x90, 0x00});
+
+        try {
+            reader.transmit(0x00, 0xB0, 0x00, 0x00, null, 0x00);
+            throw new AssertionError("Expected SmartCardReaderException");
+        } catch (SmartCardReaderException e) {
+            assertThat(e).isNotInstanceOf(ApduResponseException.class);
+            assertThat(reader.sent).hasSize(3);
+        }
+    }
+}
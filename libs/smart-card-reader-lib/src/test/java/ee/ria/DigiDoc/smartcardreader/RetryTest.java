@@ -0,0 +1,77 @@
+package ee.ria.DigiDoc.smartcardreader;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public final class RetryTest {
+
+    private FakeSmartCardReader reader;
+
+    @Before
+    public void before() {
+        reader = new FakeSmartCardReader();
+        reader.setRetryPolicy(2, 1);
+    }
+
+    @Test
+    public void readBinary_transientError_retransmitted() throws Exception {
+        reader.respond(FakeSmartCardReader.TRANSPORT_ERROR, new byte[] {0x01, (byte) 0x90, 0x00});
+
+        byte[] data = reader.transmit(0x00, 0xB0, 0x00, 0x00, null, 0x00);
+
+        assertThat(data).isEqualTo(new byte[] {0x01});
+        assertThat(reader.sent).hasSize(2);
+        assertThat(reader.retryStats().retries()).isEqualTo(1);
+        assertThat(reader.retryStats().recovered()).isEqualTo(1);
+    }
+
+    @Test
+    public void getResponse_transientError_keepsPartialResponse() throws Exception {
+        reader.respond(
+                new byte[] {0x01, 0x61, 0x01},
+                FakeSmartCardReader.TRANSPORT_ERROR,
+                new byte[] {0x02, (byte) 0x90, 0x00});
+
+        byte[] data = reader.transmit(0x00, 0xB0, 0x00, 0x00, null, 0x00);
+
+        assertThat(data).isEqualTo(new byte[] {0x01, 0x02});
+        assertThat(reader.sent).hasSize(3);
+        assertThat(reader.sent.get(2)).isEqualTo(reader.sent.get(1));
+    }
+
+    @Test
+    public void verify_transientError_notRetransmitted() {
+        reader.respond(FakeSmartCardReader.TRANSPORT_ERROR);
+
+        try {
+            reader.transmit(0x00, 0x20, 0x00, 0x01, new byte[] {0x31, 0x32}, null);
+            throw new AssertionError("Expected SmartCardReaderException");
+        } catch (SmartCardReaderException e) {
+            assertThat(reader.sent).hasSize(1);
+            assertThat(reader.retryStats().retries()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void secureMessaging_notIdempotent() {
+        CommandApdu command = CommandApdu.wrap(new byte[] {0x0C, (byte) 0xB0, 0x00, 0x00, 0x00});
+
+        assertThat(SmartCardReader.isIdempotent(command)).isFalse();
+    }
+
+    @Test
+    public void retriesExhausted() {
+        reader.respond(FakeSmartCardReader.TRANSPORT_ERROR, FakeSmartCardReader.TRANSPORT_ERROR,
+                FakeSmartCardReader.TRANSPORT_ERROR);
+
+        try {
+            reader.transmit(0x00, 0xA4, 0x02, 0x0C, new byte[] {0x50, 0x01}, null);
+            throw new AssertionError("Expected SmartCardReaderException");
+        } catch (SmartCardReaderException e) {
+            assertThat(reader.sent).hasSize(3);
+            assertThat(reader.retryStats().exhausted()).isEqualTo(1);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package ee.ria.DigiDoc.smartcardreader;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public final class TransactionTest {
+
+    private FakeSmartCardReader reader;
+
+    @Before
+    public void before() {
+        reader = new FakeSmartCardReader();
+    }
+
+    @Test
+    public void transaction_otherThreadWaits() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        Thread other = new Thread(() -> {
+            started.countDown();
+            try {
+                reader.transmit(0x00, 0xB0, 0x00, 0x00, null, 0x00);
+            } catch (SmartCardReaderException e) {
+                throw new IllegalStateException(e);
+            }
+            done.countDown();
+        });
+
+        try (SmartCardReader.Transaction ignored = reader.beginTransaction()) {
+            other.start();
+            started.await();
+            assertThat(done.await(200, TimeUnit.MILLISECONDS)).isFalse();
+            reader.transmit(0x00, 0x20, 0x00, 0x01, new byte[] {0x31}, null);
+            assertThat(reader.sent).hasSize(1);
+        }
+
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(reader.sent).hasSize(2);
+        assertThat(reader.sent.get(1)[1]).isEqualTo((byte) 0xB0);
+        assertThat(reader.transactionStats().contended()).isEqualTo(1);
+        assertThat(reader.transactionStats().maxWaitNanos()).isGreaterThan(0L);
+    }
+
+    @Test
+    public void transaction_reentrantAcquisitionsNotCounted() throws Exception {
+        try (SmartCardReader.Transaction ignored = reader.beginTransaction()) {
+            reader.transmit(0x00, 0xB0, 0x00, 0x00, null, 0x00);
+            reader.transmit(0x00, 0xB0, 0x00, 0x00, null, 0x00);
+        }
+
+        assertThat(reader.transactionStats().acquisitions()).isEqualTo(1);
+        assertThat(reader.transactionStats().contended()).isEqualTo(0);
+    }
+
+    @Test
+    public void transaction_closeTwice_endsOnce() {
+        SmartCardReader.Transaction outer = reader.beginTransaction();
+        SmartCardReader.Transaction inner = reader.beginTransaction();
+
+        inner.close();
+        inner.close();
+
+        // Outer transaction is still held
+        outer.close();
+        assertThat(reader.transactionStats().acquisitions()).isEqualTo(1);
+    }
+
+    @Test(expected = IllegalMonitorStateException.class)
+    public void endTransaction_withoutTransaction() {
+        reader.endTransaction();
+    }
+}
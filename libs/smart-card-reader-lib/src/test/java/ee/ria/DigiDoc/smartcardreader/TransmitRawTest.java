@@ -0,0 +1,66 @@
+package ee.ria.DigiDoc.smartcardreader;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public final class TransmitRawTest {
+
+    private FakeSmartCardReader reader;
+
+    @Before
+    public void before() {
+        reader = new FakeSmartCardReader();
+    }
+
+    @Test
+    public void transmitRaw_errorStatus_returnedWithoutException() throws Exception {
+        reader.respond(new byte[] {0x6B, 0x00});
+
+        ResponseApdu response = reader.transmitRaw(0x00, 0xB0, 0x10, 0x00, null, 0x00);
+
+        assertThat(response.sw()).isEqualTo(0x6B00);
+        assertThat(response.dataLength()).isEqualTo(0);
+    }
+
+    @Test
+    public void transmitRaw_wrongLength_resentWithCorrectedLe() throws Exception {
+        reader.respond(
+                new byte[] {0x6C, 0x03},
+                new byte[] {0x01, 0x02, 0x03, (byte) 0x90, 0x00});
+
+        ResponseApdu response = reader.transmitRaw(0x00, 0xB0, 0x00, 0x00, null, 0x00);
+
+        assertThat(response.isSuccess()).isTrue();
+        assertThat(response.toDataArray()).isEqualTo(new byte[] {0x01, 0x02, 0x03});
+        assertThat(reader.sent.get(1)).isEqualTo(new byte[] {0x00, (byte) 0xB0, 0x00, 0x00, 0x03});
+    }
+
+    @Test
+    public void transmitRaw_responseChain_returnsCombinedResponse() throws Exception {
+        reader.respond(
+                new byte[] {0x01, 0x61, 0x01},
+                new byte[] {0x02, (byte) 0x90, 0x00});
+
+        ResponseApdu response = reader.transmitRaw(0x00, 0xB0, 0x00, 0x00, null, 0x00);
+
+        assertThat(response.toByteArray()).isEqualTo(new byte[] {0x01, 0x02, (byte) 0x90, 0x00});
+    }
+
+    @Test
+    public void transmit_endOfFile_returnsData() throws Exception {
+        reader.respond(new byte[] {0x01, 0x02, 0x62, (byte) 0x82});
+
+        byte[] data = reader.transmit(0x00, 0xB0, 0x00, 0x00, null, 0x00);
+
+        assertThat(data).isEqualTo(new byte[] {0x01, 0x02});
+    }
+
+    @Test(expected = ApduResponseException.class)
+    public void transmit_errorStatus_throws() throws Exception {
+        reader.respond(new byte[] {0x6A, (byte) 0x82});
+
+        reader.transmit(0x00, 0xA4, 0x02, 0x0C, new byte[] {0x50, 0x01}, null);
+    }
+}
@@ -0,0 +1,34 @@
+package ee.ria.DigiDoc.smartcardreader.nfc;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+public final class NfcTagInfoTest {
+
+    private static final String[] TECH_LIST = {
+            "android.nfc.tech.IsoDep", "android.nfc.tech.NfcA"};
+
+    @Test
+    public void isoDepRequiresTechAndSak() {
+        byte[] atqa = {0x44, 0x00};
+        assertThat(new NfcTagInfo(TECH_LIST, atqa, 0x20, new byte[0]).isIsoDep()).isTrue();
+        assertThat(new NfcTagInfo(TECH_LIST, atqa, 0x08, new byte[0]).isIsoDep()).isFalse();
+        assertThat(new NfcTagInfo(new String[] {"android.nfc.tech.NfcA"}, atqa, 0x20, new byte[0])
+                .isIsoDep()).isFalse();
+    }
+
+    @Test
+    public void isoDepWithoutNfcA() {
+        assertThat(new NfcTagInfo(new String[] {"android.nfc.tech.IsoDep"}, null, 0, null).isIsoDep())
+                .isTrue();
+    }
+
+    @Test
+    public void historicalBytesAreCopied() {
+        byte[] historicalBytes = {0x00, 0x12};
+        NfcTagInfo info = new NfcTagInfo(TECH_LIST, null, 0x20, historicalBytes);
+        info.historicalBytes()[0] = 0x7F;
+        assertThat(info.historicalBytes()).isEqualTo(historicalBytes);
+    }
+}
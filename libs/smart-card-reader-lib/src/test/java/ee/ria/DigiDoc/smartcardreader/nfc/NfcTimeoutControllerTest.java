@@ -0,0 +1,50 @@
+package ee.ria.DigiDoc.smartcardreader.nfc;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+public final class NfcTimeoutControllerTest {
+
+    private final NfcTimeoutController controller = new NfcTimeoutController(1000, 30000);
+
+    @Test
+    public void readsUseShortTimeout() {
+        assertThat(controller.timeoutFor(0xB0)).isEqualTo(1000);
+        assertThat(controller.timeoutFor(0xA4)).isEqualTo(1000);
+        assertThat(controller.timeoutFor(0x20)).isEqualTo(1000);
+    }
+
+    @Test
+    public void privateKeyOperationsUseLongTimeout() {
+        assertThat(controller.timeoutFor(0x2A)).isEqualTo(30000);
+        assertThat(controller.timeoutFor((byte) 0x88)).isEqualTo(30000);
+    }
+
+    @Test
+    public void generalAuthenticateUsesLongTimeoutAfterPaceFailure() {
+        assertThat(controller.timeoutFor(0x86)).isEqualTo(1000);
+
+        controller.recordPaceFailure();
+        assertThat(controller.paceFailures()).isEqualTo(1);
+        assertThat(controller.timeoutFor(0x86)).isEqualTo(30000);
+
+        controller.recordPaceSuccess();
+        assertThat(controller.timeoutFor(0x86)).isEqualTo(1000);
+    }
+
+    @Test
+    public void paceStepsUseLongTimeoutBeforeSecureChannel() {
+        assertThat(controller.timeoutFor(0x22, false)).isEqualTo(30000);
+        assertThat(controller.timeoutFor(0x86, false)).isEqualTo(30000);
+        assertThat(controller.timeoutFor(0xA4, false)).isEqualTo(1000);
+
+        assertThat(controller.timeoutFor(0x22, true)).isEqualTo(1000);
+        assertThat(controller.timeoutFor(0x86, true)).isEqualTo(1000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void longTimeoutShorterThanShortIsRejected() {
+        new NfcTimeoutController(5000, 1000);
+    }
+}
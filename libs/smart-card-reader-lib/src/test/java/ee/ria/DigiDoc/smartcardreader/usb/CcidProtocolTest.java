@@ -0,0 +1,233 @@
+package ee.ria.DigiDoc.smartcardreader.usb;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import ee.ria.DigiDoc.smartcardreader.SmartCardReaderException;
+
+public final class CcidProtocolTest {
+
+    private static final int AUTO_PARAMETERS = 0x00000002;
+    private static final int TPDU = 0x00010000;
+    private static final int SHORT_APDU = 0x00020000;
+    private static final int EXTENDED_APDU = 0x00040000;
+
+    private static final byte[] ATR_T0 = bytes(0x3B, 0x02, 0x14, 0x50);
+    private static final byte[] ATR_T1 = atrT1();
+    private static final byte[] OK = bytes(0x90, 0x00);
+
+    private final FakeCcidTransport transport = new FakeCcidTransport();
+    private final byte[] out = new byte[258];
+
+    @Test
+    public void powerOn_returnsAtr() throws Exception {
+        CcidProtocol protocol = protocol(SHORT_APDU | AUTO_PARAMETERS, 271);
+        transport.dataBlock(ATR_T0);
+
+        assertThat(protocol.powerOn()).isEqualTo(ATR_T0);
+        assertThat(transport.written.get(0)[0]).isEqualTo((byte) CcidProtocol.PC_TO_RDR_ICC_POWER_ON);
+    }
+
+    @Test
+    public void transmit_shortApdu_skipsTimeExtension() throws Exception {
+        CcidProtocol protocol = protocol(SHORT_APDU | AUTO_PARAMETERS, 271);
+        transport.reply(CcidProtocol.RDR_TO_PC_DATA_BLOCK, 0x80, 1, 0)
+                .dataBlock(bytes(0x01, 0x90, 0x00));
+        byte[] apdu = bytes(0x00, 0xB0, 0x00, 0x00, 0x01);
+
+        int length = protocol.transmit(apdu, apdu.length, out);
+
+        assertThat(Arrays.copyOf(out, length)).isEqualTo(bytes(0x01, 0x90, 0x00));
+        assertThat(transport.written.get(0)[0]).isEqualTo((byte) CcidProtocol.PC_TO_RDR_XFR_BLOCK);
+        assertThat(transport.data(0)).isEqualTo(apdu);
+    }
+
+    @Test
+    public void transmit_sequenceNumberIncrements() throws Exception {
+        CcidProtocol protocol = protocol(SHORT_APDU | AUTO_PARAMETERS, 271);
+        transport.dataBlock(OK).dataBlock(OK);
+        byte[] apdu = bytes(0x00, 0xA4, 0x00, 0x0C);
+
+        protocol.transmit(apdu, apdu.length, out);
+        protocol.transmit(apdu, apdu.length, out);
+
+        assertThat(transport.written.get(1)[6]).isEqualTo((byte) (transport.written.get(0)[6] + 1));
+    }
+
+    @Test(expected = SmartCardReaderException.class)
+    public void transmit_failedCommandThrows() throws Exception {
+        CcidProtocol protocol = protocol(SHORT_APDU | AUTO_PARAMETERS, 271);
+        transport.reply(CcidProtocol.RDR_TO_PC_DATA_BLOCK, 0x40, 0xFE, 0);
+        byte[] apdu = bytes(0x00, 0xA4, 0x00, 0x0C);
+
+        protocol.transmit(apdu, apdu.length, out);
+    }
+
+    @Test
+    public void transmit_extendedApdu_chainsCommandAndResponse() throws Exception {
+        CcidProtocol protocol = protocol(EXTENDED_APDU | AUTO_PARAMETERS, CcidProtocol.HEADER_LENGTH + 261);
+        byte[] apdu = new byte[600];
+        apdu[1] = 0x2A;
+        transport.dataBlock()
+                .dataBlock()
+                .reply(CcidProtocol.RDR_TO_PC_DATA_BLOCK, 0, 0, 0x01, bytes(0x01, 0x02))
+                .reply(CcidProtocol.RDR_TO_PC_DATA_BLOCK, 0, 0, 0x02, OK);
+
+        int length = protocol.transmit(apdu, apdu.length, out);
+
+        assertThat(Arrays.copyOf(out, length)).isEqualTo(bytes(0x01, 0x02, 0x90, 0x00));
+        assertThat(transport.written).hasSize(4);
+        assertThat(transport.written.get(0)[8]).isEqualTo((byte) 0x01);
+        assertThat(transport.written.get(1)[8]).isEqualTo((byte) 0x03);
+        assertThat(transport.written.get(2)[8]).isEqualTo((byte) 0x02);
+        assertThat(transport.data(0).length + transport.data(1).length + transport.data(2).length)
+                .isEqualTo(apdu.length);
+        assertThat(transport.written.get(3)[8]).isEqualTo((byte) 0x10);
+    }
+
+    @Test
+    public void transmit_t0_sendsTpdu() throws Exception {
+        CcidProtocol protocol = protocol(TPDU | AUTO_PARAMETERS, 271);
+        transport.dataBlock(ATR_T0).dataBlock(bytes(0x61, 0x10)).dataBlock(OK);
+        protocol.powerOn();
+        byte[] case4 = bytes(0x00, 0xA4, 0x04, 0x00, 0x02, 0xAA, 0xBB, 0x00);
+        byte[] case1 = bytes(0x00, 0x22, 0x41, 0xA4);
+
+        assertThat(protocol.transmit(case4, case4.length, out)).isEqualTo(2);
+        assertThat(protocol.transmit(case1, case1.length, out)).isEqualTo(2);
+
+        assertThat(transport.data(1)).isEqualTo(Arrays.copyOf(case4, 7));
+        assertThat(transport.data(2)).isEqualTo(bytes(0x00, 0x22, 0x41, 0xA4, 0x00));
+        assertThat(protocol.supportsExtendedLength()).isFalse();
+    }
+
+    @Test
+    public void powerOn_setsParametersWhenReaderDoesNotConfigureThem() throws Exception {
+        CcidProtocol protocol = protocol(TPDU, 271);
+        transport.dataBlock(ATR_T1)
+                .reply(CcidProtocol.RDR_TO_PC_PARAMETERS, 0, 0, 1)
+                .dataBlock(block(0xE1, 0xFE));
+
+        protocol.powerOn();
+
+        assertThat(transport.written.get(1)[0]).isEqualTo((byte) CcidProtocol.PC_TO_RDR_SET_PARAMETERS);
+        assertThat(transport.written.get(1)[7]).isEqualTo((byte) 1);
+        assertThat(transport.data(1)).isEqualTo(bytes(0x11, 0x10, 0x00, 0x45, 0x00, 0x04, 0x00));
+    }
+
+    @Test
+    public void transmit_t1_chainsBlocksAndAnswersWaitingTimeExtension() throws Exception {
+        CcidProtocol protocol = protocol(TPDU | AUTO_PARAMETERS, 271);
+        transport.dataBlock(ATR_T1)
+                .dataBlock(block(0xE1, 0xFE))
+                .dataBlock(block(0x90))
+                .dataBlock(block(0x80))
+                .dataBlock(block(0xC3, 0x02))
+                .dataBlock(block(0x20, 0x01))
+                .dataBlock(block(0x40, 0x90, 0x00));
+        protocol.powerOn();
+        byte[] apdu = bytes(0x00, 0xB0, 0x00, 0x00, 0x04, 0x01, 0x02, 0x03, 0x04, 0x00);
+
+        int length = protocol.transmit(apdu, apdu.length, out);
+
+        assertThat(Arrays.copyOf(out, length)).isEqualTo(bytes(0x01, 0x90, 0x00));
+        assertThat(transport.data(1)).isEqualTo(block(0xC1, 0xFE));
+        assertThat(transport.data(2)).isEqualTo(block(0x20, 0x00, 0xB0, 0x00, 0x00));
+        assertThat(transport.data(3)).isEqualTo(block(0x60, 0x04, 0x01, 0x02, 0x03));
+        assertThat(transport.data(4)).isEqualTo(block(0x00, 0x04, 0x00));
+        assertThat(transport.data(5)).isEqualTo(block(0xE3, 0x02));
+        assertThat(transport.written.get(4)[7]).isEqualTo((byte) 0x00);
+        assertThat(transport.written.get(5)[7]).isEqualTo((byte) 0x02);
+        assertThat(transport.data(6)).isEqualTo(block(0x90));
+        assertThat(transport.written.get(6)[7]).isEqualTo((byte) 0x00);
+        assertThat(protocol.supportsExtendedLength()).isTrue();
+    }
+
+    @Test
+    public void transmit_t1_retransmitsRejectedBlock() throws Exception {
+        CcidProtocol protocol = protocol(TPDU | AUTO_PARAMETERS, 271);
+        transport.dataBlock(ATR_T1)
+                .dataBlock(block(0xE1, 0xFE))
+                .dataBlock(block(0x81))
+                .dataBlock(block(0x00, 0x90, 0x00));
+        protocol.powerOn();
+        byte[] apdu = bytes(0x00, 0x84, 0x00, 0x00);
+
+        int length = protocol.transmit(apdu, apdu.length, out);
+
+        assertThat(Arrays.copyOf(out, length)).isEqualTo(OK);
+        assertThat(transport.data(3)).isEqualTo(transport.data(2));
+    }
+
+    @Test
+    public void isSlotChange_readsSlotBits() {
+        assertThat(CcidProtocol.isSlotChange(bytes(0x50, 0x03), 2, 0)).isTrue();
+        assertThat(CcidProtocol.isSlotChange(bytes(0x50, 0x01), 2, 0)).isFalse();
+        assertThat(CcidProtocol.isSlotChange(bytes(0x50, 0x0C), 2, 1)).isTrue();
+        assertThat(CcidProtocol.isSlotChange(bytes(0x50, 0x0C), 2, 0)).isFalse();
+        assertThat(CcidProtocol.isSlotChange(bytes(0x51, 0x03), 2, 0)).isFalse();
+    }
+
+    @Test
+    public void descriptor_parsesClassDescriptor() {
+        byte[] raw = new byte[9 + 9 + 0x36];
+        raw[0] = 9;
+        raw[1] = 2;
+        raw[9] = 9;
+        raw[10] = 4;
+        raw[18] = 0x36;
+        raw[19] = 0x21;
+        raw[18 + 28] = (byte) 0xFE;
+        raw[18 + 40] = AUTO_PARAMETERS;
+        raw[18 + 42] = 0x04;
+        raw[18 + 44] = 0x0F;
+        raw[18 + 45] = 0x01;
+
+        CcidDescriptor descriptor = CcidDescriptor.parse(raw);
+
+        assertThat(descriptor).isNotNull();
+        assertThat(descriptor.exchangeLevel()).isEqualTo(CcidDescriptor.ExchangeLevel.EXTENDED_APDU);
+        assertThat(descriptor.autoParameters()).isTrue();
+        assertThat(descriptor.maxMessageLength()).isEqualTo(271);
+        assertThat(descriptor.maxIfsd()).isEqualTo(254);
+        assertThat(CcidDescriptor.parse(Arrays.copyOf(raw, 18))).isNull();
+    }
+
+    private CcidProtocol protocol(int features, int maxMessageLength) {
+        return new CcidProtocol(transport, new CcidDescriptor(features, maxMessageLength, 254), 0);
+    }
+
+    /**
+     * ATR offering T=1 with IFSC 4 and BWI/CWI 0x45.
+     */
+    private static byte[] atrT1() {
+        byte[] atr = bytes(0x3B, 0x80, 0x81, 0x31, 0x04, 0x45, 0x00);
+        atr[6] = CcidT1.lrc(Arrays.copyOfRange(atr, 1, 6), 5);
+        return atr;
+    }
+
+    /**
+     * T=1 block with NAD 0 and LRC.
+     */
+    private static byte[] block(int pcb, int... inf) {
+        byte[] block = new byte[inf.length + 4];
+        block[1] = (byte) pcb;
+        block[2] = (byte) inf.length;
+        for (int i = 0; i < inf.length; i++) {
+            block[3 + i] = (byte) inf[i];
+        }
+        block[block.length - 1] = CcidT1.lrc(block, block.length - 1);
+        return block;
+    }
+
+    static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,89 @@
+package ee.ria.DigiDoc.smartcardreader.usb;
+
+import static com.google.common.truth.Truth.assertThat;
+import static ee.ria.DigiDoc.smartcardreader.usb.CcidProtocolTest.bytes;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public final class CcidUsbSmartCardReaderTest {
+
+    private static final byte[] ATR = bytes(0x3B, 0x02, 0x14, 0x50);
+
+    private final FakeCcidTransport transport = new FakeCcidTransport();
+    private final CcidUsbSmartCardReader reader = new CcidUsbSmartCardReader(null);
+    private final AtomicInteger changes = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        reader.open(transport, new CcidDescriptor(0x00020002, 271, 254));
+        reader.setCardStateListener(changes::incrementAndGet);
+    }
+
+    @Test
+    public void connected_powersOnCardOnceUntilSlotChange() {
+        transport.slotStatus(CcidProtocol.ICC_INACTIVE).dataBlock(ATR);
+
+        assertThat(reader.connected()).isTrue();
+        assertThat(reader.connected()).isTrue();
+        assertThat(reader.atr()).isEqualTo(ATR);
+        assertThat(transport.written).hasSize(2);
+
+        transport.notifySlotChange(false);
+        transport.slotStatus(CcidProtocol.ICC_ABSENT);
+
+        assertThat(changes.get()).isEqualTo(1);
+        assertThat(reader.connected()).isFalse();
+        assertThat(transport.written).hasSize(3);
+    }
+
+    @Test
+    public void connected_retriesFailedPowerOn() {
+        transport.slotStatus(CcidProtocol.ICC_INACTIVE)
+                .reply(CcidProtocol.RDR_TO_PC_DATA_BLOCK, 0x40, 0xFE, 0)
+                .slotStatus(CcidProtocol.ICC_INACTIVE).dataBlock(ATR);
+
+        assertThat(reader.connected()).isFalse();
+        assertThat(reader.connected()).isTrue();
+        assertThat(reader.atr()).isEqualTo(ATR);
+        assertThat(transport.written).hasSize(4);
+    }
+
+    @Test
+    public void connected_checksSlotStatusWithoutInterruptEndpoint() {
+        transport.interrupt = false;
+        transport.slotStatus(CcidProtocol.ICC_INACTIVE).dataBlock(ATR)
+                .slotStatus(CcidProtocol.ICC_ACTIVE);
+
+        assertThat(reader.connected()).isTrue();
+        assertThat(reader.connected()).isTrue();
+        assertThat(transport.written).hasSize(3);
+    }
+
+    @Test
+    public void transmit_returnsResponse() throws Exception {
+        transport.slotStatus(CcidProtocol.ICC_INACTIVE).dataBlock(ATR)
+                .dataBlock(bytes(0x01, 0x02, 0x90, 0x00));
+        reader.connected();
+
+        byte[] response = reader.transmit(0x00, 0xB0, 0x00, 0x00, null, 2);
+
+        assertThat(response).isEqualTo(bytes(0x01, 0x02));
+        assertThat(transport.data(2)).isEqualTo(bytes(0x00, 0xB0, 0x00, 0x00, 0x02));
+    }
+
+    @Test
+    public void close_powersOffCardAndClosesTransport() {
+        transport.slotStatus(CcidProtocol.ICC_INACTIVE).dataBlock(ATR)
+                .slotStatus(CcidProtocol.ICC_INACTIVE);
+        reader.connected();
+
+        reader.close();
+
+        assertThat(transport.written.get(2)[0]).isEqualTo((byte) CcidProtocol.PC_TO_RDR_ICC_POWER_OFF);
+        assertThat(transport.closed).isTrue();
+        assertThat(reader.connected()).isFalse();
+    }
+}
@@ -0,0 +1,95 @@
+package ee.ria.DigiDoc.smartcardreader.usb;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * CcidTransport that records written messages and replies with queued messages. Slot and
+ * sequence number of a reply are copied from the last written message.
+ */
+final class FakeCcidTransport implements CcidTransport {
+
+    final List<byte[]> written = new ArrayList<>();
+    private final Deque<byte[]> replies = new ArrayDeque<>();
+    @Nullable private InterruptListener interruptListener;
+    boolean interrupt = true;
+    boolean closed;
+
+    FakeCcidTransport reply(int type, int status, int error, int chain, byte... data) {
+        byte[] reply = new byte[CcidProtocol.HEADER_LENGTH + data.length];
+        reply[0] = (byte) type;
+        reply[1] = (byte) data.length;
+        reply[2] = (byte) (data.length >> 8);
+        reply[7] = (byte) status;
+        reply[8] = (byte) error;
+        reply[9] = (byte) chain;
+        System.arraycopy(data, 0, reply, CcidProtocol.HEADER_LENGTH, data.length);
+        replies.add(reply);
+        return this;
+    }
+
+    FakeCcidTransport dataBlock(byte... data) {
+        return reply(CcidProtocol.RDR_TO_PC_DATA_BLOCK, 0, 0, 0, data);
+    }
+
+    FakeCcidTransport slotStatus(int iccStatus) {
+        return reply(CcidProtocol.RDR_TO_PC_SLOT_STATUS, iccStatus, 0, 0);
+    }
+
+    /**
+     * Send a NotifySlotChange message for slot 0.
+     */
+    void notifySlotChange(boolean present) {
+        byte[] message = {(byte) CcidProtocol.RDR_TO_PC_NOTIFY_SLOT_CHANGE, (byte) (present ? 0x03 : 0x02)};
+        if (interruptListener != null) {
+            interruptListener.onInterrupt(message, message.length);
+        }
+    }
+
+    /**
+     * @return Data of a written message.
+     */
+    byte[] data(int index) {
+        byte[] message = written.get(index);
+        return Arrays.copyOfRange(message, CcidProtocol.HEADER_LENGTH, message.length);
+    }
+
+    @Override
+    public void write(byte[] message, int length, int timeoutMillis) {
+        written.add(Arrays.copyOf(message, length));
+    }
+
+    @Override
+    public int read(byte[] buffer, int timeoutMillis) throws IOException {
+        byte[] reply = replies.poll();
+        if (reply == null) {
+            throw new IOException("No reply queued");
+        }
+        byte[] command = written.get(written.size() - 1);
+        reply[5] = command[5];
+        reply[6] = command[6];
+        System.arraycopy(reply, 0, buffer, 0, reply.length);
+        return reply.length;
+    }
+
+    @Override
+    public void setInterruptListener(@Nullable InterruptListener listener) {
+        interruptListener = listener;
+    }
+
+    @Override
+    public boolean hasInterrupt() {
+        return interrupt;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+}
@@ -0,0 +1,27 @@
+package ee.ria.DigiDoc.smartcardreader.usb;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.identive.libs.WinDefs.SCARD_STATE_EMPTY;
+import static com.identive.libs.WinDefs.SCARD_STATE_EXCLUSIVE;
+import static com.identive.libs.WinDefs.SCARD_STATE_INUSE;
+import static com.identive.libs.WinDefs.SCARD_STATE_PRESENT;
+
+import org.junit.Test;
+
+public final class IdentivUsbSmartCardReaderTest {
+
+    @Test
+    public void isTimeout_acceptsSignExtendedLibraryResult() {
+        // SCardGetStatusChange of the Identiv library returns SCARD_E_TIMEOUT as a negative long
+        assertThat(IdentivUsbSmartCardReader.isTimeout(-2146435062L)).isTrue();
+        assertThat(IdentivUsbSmartCardReader.isTimeout(0L)).isFalse();
+    }
+
+    @Test
+    public void isCardChange_ignoresOwnConnection() {
+        assertThat(IdentivUsbSmartCardReader.isCardChange(SCARD_STATE_PRESENT,
+                SCARD_STATE_PRESENT | SCARD_STATE_EXCLUSIVE | SCARD_STATE_INUSE)).isFalse();
+        assertThat(IdentivUsbSmartCardReader.isCardChange(SCARD_STATE_PRESENT, SCARD_STATE_EMPTY)).isTrue();
+        assertThat(IdentivUsbSmartCardReader.isCardChange(SCARD_STATE_EMPTY, SCARD_STATE_PRESENT)).isTrue();
+    }
+}
@@ -0,0 +1,76 @@
+package ee.ria.DigiDoc.smartcardreader.usb;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.hardware.usb.UsbDevice;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public final class UsbDriverRegistryTest {
+
+    private static final int VENDOR = 0x072F;
+    private static final int PRODUCT = 0x90CC;
+    private static final int PROBED_VENDOR = 0x04E6;
+
+    private final UsbDriverRegistry.Driver vendorDriver = () -> null;
+    private final UsbDriverRegistry.Driver productDriver = () -> null;
+    private final UsbDriverRegistry.Driver classDriver = () -> null;
+    private final AtomicInteger probed = new AtomicInteger();
+    private final AtomicInteger created = new AtomicInteger();
+    private final UsbSmartCardReaderFactory vendorProbe = new UsbSmartCardReaderFactory() {
+        @Override
+        public boolean supports(UsbDevice usbDevice) {
+            return probed.incrementAndGet() == 1;
+        }
+
+        @Override
+        public UsbSmartCardReader create() {
+            created.incrementAndGet();
+            return null;
+        }
+    };
+
+    private final UsbDriverRegistry registry = UsbDriverRegistry.builder()
+            .register(VENDOR, vendorDriver)
+            .register(VENDOR, PRODUCT, productDriver)
+            .probe(PROBED_VENDOR, vendorProbe)
+            .registerInterfaceClass(UsbDriverRegistry.CCID_INTERFACE_CLASS, classDriver)
+            .build();
+
+    @Test
+    public void driver_productTakesPrecedenceOverVendor() {
+        assertThat(registry.driver(VENDOR, PRODUCT, new int[0])).isSameInstanceAs(productDriver);
+    }
+
+    @Test
+    public void driver_vendorMatchesOtherProducts() {
+        assertThat(registry.driver(VENDOR, 0x0001, new int[] {UsbDriverRegistry.CCID_INTERFACE_CLASS}))
+                .isSameInstanceAs(vendorDriver);
+    }
+
+    @Test
+    public void driver_interfaceClassIsFallback() {
+        assertThat(registry.driver(0x1234, 0x0001, new int[] {0x03, UsbDriverRegistry.CCID_INTERFACE_CLASS}))
+                .isSameInstanceAs(classDriver);
+    }
+
+    @Test
+    public void driver_unknownDeviceIsNotSupported() {
+        assertThat(registry.driver(0x1234, 0x0001, new int[] {0x03})).isNull();
+    }
+
+    @Test
+    public void driver_vendorProbeRejectionFallsThroughToInterfaceClass() {
+        int[] interfaceClasses = {UsbDriverRegistry.CCID_INTERFACE_CLASS};
+
+        UsbDriverRegistry.Driver supported = registry.driver(PROBED_VENDOR, 0x0001, interfaceClasses);
+        UsbDriverRegistry.Driver unsupported = registry.driver(PROBED_VENDOR, 0x0002, interfaceClasses);
+
+        assertThat(supported).isNotNull();
+        supported.create();
+        assertThat(created.get()).isEqualTo(1);
+        assertThat(unsupported).isSameInstanceAs(classDriver);
+    }
+}